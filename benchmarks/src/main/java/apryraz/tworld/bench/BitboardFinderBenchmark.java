@@ -0,0 +1,138 @@
+package apryraz.tworld.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import apryraz.tworld.EngineType;
+import apryraz.tworld.TFConfig;
+import apryraz.tworld.TreasureFinder;
+import apryraz.tworld.TreasureWorldEnv;
+
+/**
+ * Benchmarks of the TreasureFinder agent with the bitboard engine:
+ * construction of the agent, a full step of the agent and the inference
+ * performed at the end of every step. The bitboard engine has no formula,
+ * so the Gamma and inference mode parameters of TreasureFinderBenchmark
+ * do not apply to it, and it runs on all the world dimensions.
+ **/
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitboardFinderBenchmark {
+
+    /**
+     * World dimension and layout shared by all the benchmarks of this class
+     **/
+    @State(Scope.Benchmark)
+    public static class World {
+        @Param({"8", "16", "32", "64", "128"})
+        public int worldDim;
+
+        @Param({"17"})
+        public long seed;
+
+        WorldLayout layout;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            Quiet.silenceStdout();
+            layout = new WorldLayout(worldDim, seed);
+        }
+
+        TFConfig config() {
+            return new TFConfig().setEngine(EngineType.BITBOARD);
+        }
+
+        TreasureFinder newAgent() {
+            TreasureFinder agent = new TreasureFinder(layout.dim, config());
+            agent.setEnvironment(new TreasureWorldEnv(layout.dim, layout.treasureX,
+                    layout.treasureY, layout.piratesFile));
+            agent.loadListOfSteps(layout.numSteps, layout.stepsFile);
+            return agent;
+        }
+    }
+
+    /**
+     * An agent that walks the serpentine path of the layout, rebuilt outside
+     * of the measured time once it locates the Treasure or exhausts the
+     * path, as in TreasureFinderBenchmark
+     **/
+    @State(Scope.Thread)
+    public static class WalkingAgent {
+        TreasureFinder agent;
+        int stepsDone;
+
+        @Setup(Level.Invocation)
+        public void setup(World world) {
+            if (agent == null || agent.isSolved() || stepsDone == world.layout.numSteps) {
+                tearDown();
+                agent = world.newAgent();
+                stepsDone = 0;
+            }
+            stepsDone++;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (agent != null) {
+                agent.closeListOfSteps();
+            }
+        }
+    }
+
+    /**
+     * An agent that has already performed a few steps
+     **/
+    @State(Scope.Thread)
+    public static class InformedAgent {
+        @Param({"3"})
+        public int stepsBefore;
+
+        TreasureFinder agent;
+
+        @Setup(Level.Trial)
+        public void setup(World world) throws Exception {
+            agent = world.newAgent();
+            for (int s = 0; s < stepsBefore; s++) {
+                agent.runNextStep();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            agent.closeListOfSteps();
+        }
+    }
+
+    @Benchmark
+    public TreasureFinder newTreasureFinder(World world) {
+        return new TreasureFinder(world.worldDim, world.config());
+    }
+
+    @Benchmark
+    public TreasureFinder runNextStep(WalkingAgent state) throws Exception {
+        state.agent.runNextStep();
+        return state.agent;
+    }
+
+    @Benchmark
+    public TreasureFinder performInferenceQuestions(InformedAgent state) throws Exception {
+        state.agent.performInferenceQuestions();
+        return state.agent;
+    }
+}
@@ -0,0 +1,32 @@
+package apryraz.tworld.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * The agent and the environment print every message and every state to
+ * System.out. Benchmarks replace the standard output with a discarding
+ * stream, so the numbers measure the reasoning and not the console.
+ **/
+final class Quiet {
+
+    private static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    private Quiet() {
+    }
+
+    /**
+     * Discard everything printed to System.out from now on
+     **/
+    static void silenceStdout() {
+        System.setOut(NULL_OUT);
+    }
+}
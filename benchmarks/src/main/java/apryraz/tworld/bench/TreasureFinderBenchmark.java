@@ -0,0 +1,185 @@
+package apryraz.tworld.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sat4j.specs.ISolver;
+
+import apryraz.tworld.EngineType;
+import apryraz.tworld.InferenceMode;
+import apryraz.tworld.TFConfig;
+import apryraz.tworld.TreasureFinder;
+import apryraz.tworld.TreasureWorldEnv;
+
+/**
+ * Benchmarks of the TreasureFinder agent with the SAT engine: construction
+ * of the agent, construction of the formula Gamma, a full step of the agent
+ * and the inference questions performed at the end of every step. The
+ * bitboard engine, which has no Gamma nor inference modes, is measured by
+ * BitboardFinderBenchmark.
+ *
+ * The world dimension is swept with the worldDim parameter. The eager
+ * Gamma has O(worldDim^4) clauses, about 4 GB of heap at worldDim=64, so
+ * the sweep stops there: at 128 it does not fit in the forked JVM. The
+ * lazy Gamma only encodes the implications of the evidence actually
+ * received, and can be run on bigger worlds with
+ * "-p gamma=lazy -p worldDim=128".
+ **/
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+public class TreasureFinderBenchmark {
+
+    /**
+     * World dimension and layout shared by all the benchmarks of this class
+     **/
+    @State(Scope.Benchmark)
+    public static class World {
+        @Param({"8", "16", "32", "64"})
+        public int worldDim;
+
+        @Param({"17"})
+        public long seed;
+
+        @Param({"eager", "lazy"})
+        public String gamma;
+
+        WorldLayout layout;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            Quiet.silenceStdout();
+            layout = new WorldLayout(worldDim, seed);
+        }
+
+        /**
+         * @return the options of the agent, with the default inference mode
+         **/
+        TFConfig config() {
+            return new TFConfig().setEngine(EngineType.SAT)
+                    .setLazyGamma(gamma.equals("lazy"));
+        }
+
+        TreasureFinder newAgent(Inference inference) {
+            TreasureFinder agent = new TreasureFinder(layout.dim,
+                    config().setInferenceMode(InferenceMode.valueOf(inference.mode)));
+            agent.setEnvironment(new TreasureWorldEnv(layout.dim, layout.treasureX,
+                    layout.treasureY, layout.piratesFile));
+            agent.loadListOfSteps(layout.numSteps, layout.stepsFile);
+            return agent;
+        }
+    }
+
+    /**
+     * Inference mode of the agents that perform steps. Building the agent
+     * and Gamma does not depend on it, so those benchmarks do not sweep it.
+     **/
+    @State(Scope.Benchmark)
+    public static class Inference {
+        @Param({"PER_CELL", "BACKBONE_ASSUMPTIONS", "BACKBONE_BLOCKING", "PARALLEL"})
+        public String mode;
+    }
+
+    /**
+     * An agent that has just been created
+     **/
+    @State(Scope.Thread)
+    public static class FreshAgent {
+        TreasureFinder agent;
+
+        @Setup(Level.Trial)
+        public void setup(World world) {
+            agent = new TreasureFinder(world.worldDim, world.config());
+        }
+    }
+
+    /**
+     * An agent that walks the serpentine path of the layout. A solved agent
+     * does nothing in runNextStep(), so the agent is rebuilt, outside of the
+     * measured time, once it locates the Treasure or exhausts the path, and
+     * every invocation times a real step.
+     **/
+    @State(Scope.Thread)
+    public static class WalkingAgent {
+        TreasureFinder agent;
+        int stepsDone;
+
+        @Setup(Level.Invocation)
+        public void setup(World world, Inference inference) {
+            if (agent == null || agent.isSolved() || stepsDone == world.layout.numSteps) {
+                tearDown();
+                agent = world.newAgent(inference);
+                stepsDone = 0;
+            }
+            stepsDone++;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (agent != null) {
+                agent.closeListOfSteps();
+            }
+        }
+    }
+
+    /**
+     * An agent that has already performed a few steps, so the inference
+     * questions run against a formula with evidence in it.
+     **/
+    @State(Scope.Thread)
+    public static class InformedAgent {
+        @Param({"3"})
+        public int stepsBefore;
+
+        TreasureFinder agent;
+
+        @Setup(Level.Trial)
+        public void setup(World world, Inference inference) throws Exception {
+            agent = world.newAgent(inference);
+            for (int s = 0; s < stepsBefore; s++) {
+                agent.runNextStep();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            agent.closeListOfSteps();
+        }
+    }
+
+    @Benchmark
+    public TreasureFinder newTreasureFinder(World world) {
+        return new TreasureFinder(world.worldDim, world.config());
+    }
+
+    @Benchmark
+    public ISolver buildGamma(FreshAgent state) throws Exception {
+        return state.agent.buildGamma();
+    }
+
+    @Benchmark
+    public TreasureFinder runNextStep(WalkingAgent state) throws Exception {
+        state.agent.runNextStep();
+        return state.agent;
+    }
+
+    @Benchmark
+    public TreasureFinder performInferenceQuestions(InformedAgent state) throws Exception {
+        state.agent.performInferenceQuestions();
+        return state.agent;
+    }
+}
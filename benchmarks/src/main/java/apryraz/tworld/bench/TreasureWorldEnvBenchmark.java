@@ -0,0 +1,88 @@
+package apryraz.tworld.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import apryraz.tworld.AMessage;
+import apryraz.tworld.TreasureWorldEnv;
+
+/**
+ * Benchmarks of the answers given by the TreasureWorldEnv to the three
+ * messages sent by the agent: moveto, detectsat and treasureup. Every
+ * invocation answers one message for a seeded random cell of the world.
+ **/
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TreasureWorldEnvBenchmark {
+
+    @Param({"8", "16", "32", "64", "128"})
+    public int worldDim;
+
+    @Param({"17"})
+    public long seed;
+
+    /**
+     * Number of precomputed messages of each type, cycled through
+     **/
+    private static final int NUM_MESSAGES = 1024;
+
+    TreasureWorldEnv env;
+    AMessage[] moves, detections, pirateQuestions;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Quiet.silenceStdout();
+        WorldLayout layout = new WorldLayout(worldDim, seed);
+        env = new TreasureWorldEnv(layout.dim, layout.treasureX, layout.treasureY,
+                layout.piratesFile);
+        Random random = new Random(seed);
+        moves = new AMessage[NUM_MESSAGES];
+        detections = new AMessage[NUM_MESSAGES];
+        pirateQuestions = new AMessage[NUM_MESSAGES];
+        for (int m = 0; m < NUM_MESSAGES; m++) {
+            String x = Integer.toString(1 + random.nextInt(worldDim));
+            String y = Integer.toString(1 + random.nextInt(worldDim));
+            moves[m] = new AMessage("moveto", x, y, "");
+            detections[m] = new AMessage("detectsat", x, y, "");
+            pirateQuestions[m] = new AMessage("treasureup", x, y, "");
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (NUM_MESSAGES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public AMessage acceptMoveTo() {
+        return env.acceptMessage(moves[nextIndex()]);
+    }
+
+    @Benchmark
+    public AMessage acceptDetectsAt() {
+        return env.acceptMessage(detections[nextIndex()]);
+    }
+
+    @Benchmark
+    public AMessage acceptTreasureUp() {
+        return env.acceptMessage(pirateQuestions[nextIndex()]);
+    }
+}
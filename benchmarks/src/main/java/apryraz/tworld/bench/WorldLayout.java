@@ -0,0 +1,72 @@
+package apryraz.tworld.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * A seeded Treasure World layout: treasure position, pirate positions and
+ * a walk of steps, together with the temporary files that the agent and
+ * the environment load them from.
+ **/
+public class WorldLayout {
+    /**
+     * World dimension and treasure position
+     **/
+    public final int dim, treasureX, treasureY;
+    /**
+     * Files with the list of pirates and the list of steps
+     **/
+    public final String piratesFile, stepsFile;
+    /**
+     * Number of steps written to the steps file
+     **/
+    public final int numSteps;
+
+    /**
+     * Build a layout for a dim x dim world. The treasure is never placed
+     * at (1,1), since the agent assumes it is not there. Roughly one cell
+     * out of dim holds a pirate, and the steps follow a serpentine walk
+     * that starts at (1,1) and covers every cell of the world.
+     *
+     * @param dim  dimension of the world
+     * @param seed seed of the random generator used for the layout
+     **/
+    public WorldLayout(int dim, long seed) throws IOException {
+        Random random = new Random(seed);
+        int tx, ty;
+        do {
+            tx = 1 + random.nextInt(dim);
+            ty = 1 + random.nextInt(dim);
+        } while (tx == 1 && ty == 1);
+        this.dim = dim;
+        this.treasureX = tx;
+        this.treasureY = ty;
+
+        File pirates = File.createTempFile("pirates-" + dim + "-", ".txt");
+        pirates.deleteOnExit();
+        PrintWriter pw = new PrintWriter(pirates, "UTF-8");
+        int numPirates = Math.max(1, dim);
+        for (int p = 0; p < numPirates; p++) {
+            pw.print((1 + random.nextInt(dim)) + "," + (1 + random.nextInt(dim)) + " ");
+        }
+        pw.println();
+        pw.close();
+        piratesFile = pirates.getPath();
+
+        File steps = File.createTempFile("steps-" + dim + "-", ".txt");
+        steps.deleteOnExit();
+        pw = new PrintWriter(steps, "UTF-8");
+        for (int x = 1; x <= dim; x++) {
+            for (int k = 1; k <= dim; k++) {
+                int y = (x % 2 == 1) ? k : dim - k + 1;
+                pw.print(x + "," + y + " ");
+            }
+        }
+        pw.println();
+        pw.close();
+        stepsFile = steps.getPath();
+        numSteps = dim * dim;
+    }
+}
@@ -0,0 +1,8 @@
+/**
+* JMH benchmarks for the Treasure World agent and environment. The
+* benchmarks sweep the world dimension and use seeded treasure and
+* pirate layouts, so runs on different machines measure the same worlds.
+*
+**/
+
+package apryraz.tworld.bench;
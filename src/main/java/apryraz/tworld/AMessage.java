@@ -3,6 +3,12 @@ package apryraz.tworld;
 /**
  * Class for representing messages exchanged between agents and the
  * World interface object
+ *
+ * A message has a type and three integer parameters: the x and y
+ * coordinates, and a value whose meaning depends on the type (pirate found,
+ * detector reading, pirate answer). Messages can also be built and read as
+ * four Strings, the original representation; each representation is only
+ * computed from the other one when it is asked for.
  **/
 public class AMessage {
     /*
@@ -11,8 +17,18 @@ public class AMessage {
      *  field0:  message type: moveto, movedto, notmovedto, detects at, yes/no ...
      *  field1:  first parameter of message
      *  field2:  second parameter of message
+     *  It is null until some field is asked for, when the message was built
+     *  with typed fields.
      */
     String[] msg;
+    /*
+     *  Typed fields of the message. type is null until some of them is asked
+     *  for, when the message was built with Strings.
+     */
+    MessageType type;
+    int x, y, value;
+
+    private static final String[] SMALL_INTS = {"0", "1", "2", "3"};
 
     /**
      * Class constructor
@@ -31,11 +47,65 @@ public class AMessage {
         msg[3] = par3;
     }
 
+    /**
+     * Class constructor for a typed message
+     *
+     * @param type  message type
+     * @param x     x coordinate
+     * @param y     y coordinate
+     * @param value third parameter of the message, 0 when it has none
+     **/
+    public AMessage(MessageType type, int x, int y, int value) {
+        this.type = type;
+        this.x = x;
+        this.y = y;
+        this.value = value;
+    }
+
+    public static AMessage moveTo(int x, int y) {
+        return new AMessage(MessageType.MOVETO, x, y, 0);
+    }
+
+    public static AMessage movedTo(int x, int y, int pirate) {
+        return new AMessage(MessageType.MOVEDTO, x, y, pirate);
+    }
+
+    public static AMessage notMovedTo(int x, int y) {
+        return new AMessage(MessageType.NOTMOVEDTO, x, y, 0);
+    }
+
+    public static AMessage detectsAt(int x, int y) {
+        return new AMessage(MessageType.DETECTSAT, x, y, 0);
+    }
+
+    public static AMessage detected(int reading, int x, int y) {
+        return new AMessage(MessageType.DETECTED, x, y, reading);
+    }
+
+    public static AMessage treasureUp(int x, int y) {
+        return new AMessage(MessageType.TREASUREUP, x, y, 0);
+    }
+
+    public static AMessage pirateAnswer(boolean up, int x, int y) {
+        return new AMessage(MessageType.PIRATEANSWER, x, y, up ? 1 : 0);
+    }
+
     /**
      * Show message on screen
      **/
     public void showMessage() {
-        System.out.println("MESSAGE: " + msg[0] + " " + msg[1] + " " + msg[2] + " " + msg[3]);
+        showMessage(ConsoleEventSink.STDOUT);
+    }
+
+    /**
+     * Report the message as a DEBUG event
+     *
+     * @param events where the message is reported
+     **/
+    public void showMessage(EventSink events) {
+        if (events.isEnabled(EventLevel.DEBUG)) {
+            events.log(EventLevel.DEBUG, "MESSAGE: " + getComp(0) + " " + getComp(1) + " " + getComp(2) + " " + getComp(3));
+        }
     }
 
     /**
@@ -45,7 +115,109 @@ public class AMessage {
      * @return the String corresponding to the component requested
      **/
     public String getComp(int c) {
+        if (msg == null) {
+            msg = toStrings();
+        }
         return msg[c];
     }
 
+    /**
+     * @return the type of the message
+     **/
+    public MessageType getType() {
+        if (type == null) {
+            parseStrings();
+        }
+        return type;
+    }
+
+    /**
+     * @return the x coordinate of the message
+     **/
+    public int getX() {
+        if (type == null) {
+            parseStrings();
+        }
+        return x;
+    }
+
+    /**
+     * @return the y coordinate of the message
+     **/
+    public int getY() {
+        if (type == null) {
+            parseStrings();
+        }
+        return y;
+    }
+
+    /**
+     * @return the value of the message: pirate found (MOVEDTO), reading
+     * (DETECTED) or 1 for a "yes" answer (PIRATEANSWER)
+     **/
+    public int getValue() {
+        if (type == null) {
+            parseStrings();
+        }
+        return value;
+    }
+
+    /**
+     * Compute the typed fields from the String fields. As with the String
+     * messages, a coordinate that is not a number throws a
+     * NumberFormatException.
+     **/
+    private void parseStrings() {
+        MessageType t = MessageType.fromText(msg[0]);
+        if (hasCoords(t)) {
+            x = Integer.parseInt(msg[1]);
+            y = Integer.parseInt(msg[2]);
+        }
+        switch (t) {
+            case MOVEDTO:
+                value = Integer.parseInt(msg[3]);
+                break;
+            case DETECTED:
+                value = msg[0].charAt(0) - '0';
+                break;
+            case PIRATEANSWER:
+                value = msg[0].equals("yes") ? 1 : 0;
+                break;
+            default:
+                value = 0;
+        }
+        type = t;
+    }
+
+    private static boolean hasCoords(MessageType t) {
+        return t != MessageType.VOIDMSG && t != MessageType.NOMESSAGE
+                && t != MessageType.UNKNOWN;
+    }
+
+    /**
+     * Compute the String fields from the typed fields
+     **/
+    private String[] toStrings() {
+        String[] fields = new String[4];
+        switch (type) {
+            case DETECTED:
+                fields[0] = intToString(value);
+                break;
+            case PIRATEANSWER:
+                fields[0] = value == 1 ? "yes" : "no";
+                break;
+            default:
+                fields[0] = type.text;
+        }
+        boolean coords = hasCoords(type);
+        fields[1] = coords ? intToString(x) : "";
+        fields[2] = coords ? intToString(y) : "";
+        fields[3] = type == MessageType.MOVEDTO ? intToString(value) : "";
+        return fields;
+    }
+
+    private static String intToString(int i) {
+        return (i >= 0 && i < SMALL_INTS.length) ? SMALL_INTS[i] : Integer.toString(i);
+    }
+
 }
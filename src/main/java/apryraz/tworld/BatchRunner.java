@@ -0,0 +1,266 @@
+package apryraz.tworld;
+
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many scenarios in one JVM, on a bounded pool of threads or on one
+ * virtual thread per scenario. Every scenario gets its own TreasureFinder
+ * agent, built with the same options, and its own TreasureWorldEnv unless
+ * it was built with Scenario.onWorld().
+ **/
+public class BatchRunner {
+    /**
+     * Options of the agents
+     **/
+    final TFConfig config;
+    /**
+     * Number of scenarios that run at the same time, or 0 to run every
+     * scenario in its own virtual thread
+     **/
+    final int threads;
+
+    /**
+     * @param config  options of the agents. Its event sink must be thread
+     *                safe, since all the agents report to it
+     * @param threads number of scenarios that run at the same time
+     **/
+    public BatchRunner(TFConfig config, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.config = config;
+        this.threads = threads;
+    }
+
+    private BatchRunner(TFConfig config) {
+        this.config = config;
+        threads = 0;
+    }
+
+    /**
+     * Runner that starts a virtual thread for every scenario, so that
+     * thousands of agents can run at the same time. When the JVM has no
+     * virtual threads (before Java 21), it uses a pool with one thread per
+     * processor instead.
+     *
+     * @param config options of the agents
+     * @return the new runner
+     **/
+    public static BatchRunner onVirtualThreads(TFConfig config) {
+        return new BatchRunner(config);
+    }
+
+    /**
+     * @return true if this JVM can start virtual threads
+     **/
+    public static boolean hasVirtualThreads() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), looked up by reflection
+     * since the code is compiled for older versions of Java
+     **/
+    private static Method virtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        if (threads > 0) {
+            return Executors.newFixedThreadPool(threads);
+        }
+        Method factory = virtualThreadFactory();
+        if (factory != null) {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            } catch (InvocationTargetException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Run all the scenarios and wait for them to finish
+     *
+     * @param scenarios the scenarios to run
+     * @return the results, in the same order as the scenarios
+     **/
+    public List<ScenarioResult> run(List<Scenario> scenarios) throws InterruptedException {
+        ExecutorService pool = newExecutor();
+        try {
+            List<Future<ScenarioResult>> futures = new ArrayList<Future<ScenarioResult>>(scenarios.size());
+            for (final Scenario scenario : scenarios) {
+                futures.add(pool.submit(new Callable<ScenarioResult>() {
+                    public ScenarioResult call() {
+                        return runScenario(scenario);
+                    }
+                }));
+            }
+            List<ScenarioResult> results = new ArrayList<ScenarioResult>(scenarios.size());
+            for (Future<ScenarioResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    // runScenario catches the exceptions of the agent
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Run one scenario in the calling thread, until its steps are over or
+     * the agent knows where the Treasure is. Errors, also when building the
+     * agent, are recorded in the result.
+     *
+     * @param scenario the scenario to run
+     * @return its result
+     **/
+    public ScenarioResult runScenario(Scenario scenario) {
+        LatencyHistogram latency = new LatencyHistogram();
+        long start = System.nanoTime();
+        TreasureFinder agent = null;
+        int performed = 0;
+        Exception error = null;
+        try {
+            agent = new TreasureFinder(scenario.dim, config);
+            agent.setEnvironment(scenario.newEnvironment(config.getEventSink()));
+            agent.setListOfSteps(scenario.steps);
+            for (int step = 0; step < scenario.steps.size() && !agent.isSolved(); step++) {
+                long stepStart = System.nanoTime();
+                agent.runNextStep();
+                latency.record(System.nanoTime() - stepStart);
+                performed++;
+            }
+        } catch (Exception ex) {
+            error = ex;
+        }
+        // An agent that could not be built knows nothing
+        TFState state = agent != null ? agent.getState() : new TFState(scenario.dim);
+        return new ScenarioResult(scenario, state, latency, performed,
+                System.nanoTime() - start, error);
+    }
+
+    /**
+     * Print the throughput of the batch, the histogram of the step
+     * durations of all the scenarios and the final knowledge of every
+     * scenario: its number of candidate positions and, when there are at
+     * most maxListed, the candidates themselves.
+     *
+     * @param results     results of the batch
+     * @param wallNanos   duration of the whole batch
+     * @param maxListed   candidate positions are listed up to this number
+     * @param out         where the report is printed
+     **/
+    public static void printReport(List<ScenarioResult> results, long wallNanos,
+                                   int maxListed, PrintStream out) {
+        LatencyHistogram all = new LatencyHistogram();
+        long steps = 0;
+        int failed = 0;
+        for (ScenarioResult result : results) {
+            all.merge(result.stepLatency);
+            steps += result.stepsPerformed;
+            if (result.error != null) {
+                failed++;
+            }
+        }
+        double seconds = wallNanos / 1e9;
+        out.println("SCENARIOS");
+        for (ScenarioResult result : results) {
+            StringBuilder line = new StringBuilder();
+            line.append(result.scenario.name).append(" dim ").append(result.scenario.dim)
+                    .append(" steps ").append(result.stepsPerformed)
+                    .append(" candidates ").append(result.state.getNumCandidates());
+            if (result.state.getNumCandidates() <= maxListed) {
+                line.append(" :");
+                Iterator<Position> candidates = result.state.candidates();
+                while (candidates.hasNext()) {
+                    Position p = candidates.next();
+                    line.append(' ').append(p.x).append(',').append(p.y);
+                }
+            }
+            if (result.error != null) {
+                line.append(" ERROR ").append(result.error);
+            }
+            out.println(line);
+        }
+        out.println("STEP LATENCY");
+        all.print(out);
+        out.printf("THROUGHPUT %d scenarios (%d failed), %d steps in %.3f s: %.1f scenarios/s, %.1f steps/s%n",
+                results.size(), failed, steps, seconds, results.size() / seconds, steps / seconds);
+    }
+
+    /**
+     * Run a batch of scenarios, given by one of:
+     *   manifest file
+     *   generate seed count dim numSteps numPirates
+     *   fleet seed count dim numSteps numPirates
+     * See Scenario.readManifest() and Scenario.generate(). A fleet is a set
+     * of agents with different random walks on one shared world. The options
+     * of the agents are read from the system properties, like in
+     * TreasureWorld.main, but the events are discarded unless tworld.events
+     * is given. The number of threads is given by tworld.threads: a number,
+     * by default the number of processors, or "virtual".
+     **/
+    public static void main(String[] args) throws Exception {
+        TFConfig config = TFConfig.fromSystemProperties();
+        if (System.getProperty("tworld.events") == null) {
+            config.setEventSink(SilentEventSink.INSTANCE);
+        }
+        List<Scenario> scenarios;
+        if (args.length == 2 && args[0].equals("manifest")) {
+            scenarios = Scenario.readManifest(args[1]);
+        } else if (args.length == 6 && args[0].equals("generate")) {
+            scenarios = Scenario.generate(Long.parseLong(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+        } else if (args.length == 6 && args[0].equals("fleet")) {
+            long seed = Long.parseLong(args[1]);
+            TreasureWorldEnv world = Scenario.generate(seed, 1, Integer.parseInt(args[3]), 0,
+                    Integer.parseInt(args[5])).get(0).newEnvironment(config.getEventSink());
+            scenarios = Scenario.generateOnWorld(world, seed, Integer.parseInt(args[2]),
+                    Integer.parseInt(args[4]));
+        } else {
+            System.out.println("Usage: BatchRunner manifest <file>");
+            System.out.println("       BatchRunner generate <seed> <count> <dim> <numSteps> <numPirates>");
+            System.out.println("       BatchRunner fleet <seed> <count> <dim> <numSteps> <numPirates>");
+            return;
+        }
+        String threads = System.getProperty("tworld.threads");
+        BatchRunner runner;
+        if ("virtual".equals(threads)) {
+            runner = onVirtualThreads(config);
+        } else {
+            runner = new BatchRunner(config, threads == null
+                    ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads));
+        }
+        try {
+            long start = System.nanoTime();
+            List<ScenarioResult> results = runner.run(scenarios);
+            long wallNanos = System.nanoTime() - start;
+            config.getEventSink().flush();
+            printReport(results, wallNanos, 16, System.out);
+        } finally {
+            config.getEventSink().close();
+        }
+    }
+}
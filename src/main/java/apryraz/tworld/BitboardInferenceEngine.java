@@ -0,0 +1,146 @@
+package apryraz.tworld;
+
+import java.util.BitSet;
+
+/**
+ * Inference engine that keeps the set of positions where the Treasure can
+ * still be as a bitboard, one bit per position of the world. Every evidence
+ * is a mask of the positions it allows, so adding it is a word-parallel
+ * intersection with the bitboard.
+ *
+ * The detector masks come from the shared DistanceTable, so they follow
+ * the same semantics as the evidence clauses of SatInferenceEngine, and
+ * both engines exclude exactly the same positions.
+ **/
+public class BitboardInferenceEngine implements InferenceEngine {
+    /**
+     * Dimension of the world and total size of the world (Dim^2)
+     **/
+    int WorldDim, WorldLinealDim;
+    /**
+     * Positions (lineal index with offset 0) where the Treasure can still be
+     **/
+    BitSet candidates;
+    /**
+     * Positions already reported as excluded by performInferenceQuestions
+     **/
+    BitSet knownExcluded;
+    /**
+     * rowsUpTo[y] holds the positions of rows 1..y, computed the first time
+     * a pirate answer at row y is received
+     **/
+    BitSet[] rowsUpTo;
+    /**
+     * Distances between positions, shared with other worlds of the same dimension
+     **/
+    DistanceTable distances;
+
+    /**
+     * The class constructor sets every position as possible, except (1,1)
+     * where the Treasure cannot be.
+     *
+     * @param WDim the dimension of the Treasure World
+     **/
+    public BitboardInferenceEngine(int WDim) {
+        WorldDim = WDim;
+        WorldLinealDim = WorldDim * WorldDim;
+        candidates = new BitSet(WorldLinealDim);
+        candidates.set(0, WorldLinealDim);
+        candidates.clear(0);
+        knownExcluded = new BitSet(WorldLinealDim);
+        rowsUpTo = new BitSet[WorldDim + 1];
+        distances = DistanceTable.forDim(WorldDim);
+    }
+
+    /**
+     * The bitboard always holds all the knowledge, so there is nothing to
+     * carry from the last inference to the past.
+     **/
+    @Override
+    public void addLastFutureClausesToPastClauses() {
+    }
+
+    @Override
+    public void addDetectorEvidence(int x, int y, int reading) {
+        distances.retainAllowed(candidates, x, y, reading);
+    }
+
+    @Override
+    public void addPirateEvidence(int x, int y, boolean up) {
+        if (up) {
+            candidates.andNot(rowsUpTo(y));
+        } else {
+            candidates.and(rowsUpTo(y));
+        }
+    }
+
+    @Override
+    public BitSet performInferenceQuestions() {
+        BitSet excluded = new BitSet(WorldLinealDim);
+        excluded.set(0, WorldLinealDim);
+        excluded.andNot(candidates);
+        excluded.andNot(knownExcluded);
+        knownExcluded.or(excluded);
+        return excluded;
+    }
+
+    /**
+     * All the positions are decided at once, so none is ever left pending
+     **/
+    @Override
+    public void setDeadline(long deadline) {
+    }
+
+    @Override
+    public BitSet getPending() {
+        return new BitSet(WorldLinealDim);
+    }
+
+    @Override
+    public BitSet resumePending() {
+        return new BitSet(WorldLinealDim);
+    }
+
+    @Override
+    public void restoreExcluded(BitSet excluded) {
+        candidates.andNot(excluded);
+        knownExcluded.or(excluded);
+    }
+
+    @Override
+    public BitSet whatIf(int x, int y, int reading) {
+        BitSet possible = (BitSet) candidates.clone();
+        distances.retainAllowed(possible, x, y, reading);
+        BitSet excluded = new BitSet(WorldLinealDim);
+        excluded.set(0, WorldLinealDim);
+        excluded.andNot(possible);
+        excluded.andNot(knownExcluded);
+        return excluded;
+    }
+
+    @Override
+    public void readCounters(StepMetrics counters) {
+    }
+
+    /**
+     * Mask of the positions in rows 1..y
+     *
+     * @param y last row of the mask
+     * @return the shared mask, that must not be modified
+     **/
+    BitSet rowsUpTo(int y) {
+        int row = Math.max(0, Math.min(WorldDim, y));
+        if (rowsUpTo[row] == null) {
+            BitSet mask = new BitSet(WorldLinealDim);
+            for (int i = 1; i <= WorldDim && row > 0; i++) {
+                mask.set(lineal(i, 1), lineal(i, row) + 1);
+            }
+            rowsUpTo[row] = mask;
+        }
+        return rowsUpTo[row];
+    }
+
+    private int lineal(int x, int y) {
+        return (x - 1) * WorldDim + (y - 1);
+    }
+}
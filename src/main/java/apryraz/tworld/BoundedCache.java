@@ -0,0 +1,80 @@
+package apryraz.tworld;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small map that keeps at most maxEntries values, evicting the least
+ * recently used one when a new value is added. All the operations are
+ * synchronized, so one cache can be shared by every agent and environment.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the cached values
+ **/
+public class BoundedCache<K, V> {
+    /**
+     * The entries, in access order
+     **/
+    private final LinkedHashMap<K, V> entries;
+
+    /**
+     * Class constructor
+     *
+     * @param maxEntries maximum number of values kept in the cache
+     **/
+    public BoundedCache(final int maxEntries) {
+        entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the value cached for key
+     *
+     * @param key the key of the value
+     * @return the value, or null if it is not in the cache
+     **/
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Add a value to the cache, unless there is already one for the same key
+     *
+     * @param key   the key of the value
+     * @param value the value to cache
+     * @return the value that remains cached for key
+     **/
+    public synchronized V putIfAbsent(K key, V value) {
+        V previous = entries.get(key);
+        if (previous != null) {
+            return previous;
+        }
+        entries.put(key, value);
+        return value;
+    }
+
+    /**
+     * Add a value to the cache, replacing the one cached for the same key
+     *
+     * @param key   the key of the value
+     * @param value the value to cache
+     **/
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    /**
+     * Remove all the values of the cache
+     **/
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
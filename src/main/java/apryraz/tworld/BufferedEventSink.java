@@ -0,0 +1,186 @@
+package apryraz.tworld;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Event sink that hands the events to a background thread, which writes
+ * them through a large buffer. The threads that report events only wait
+ * when the queue of pending events is full. The buffer is written out
+ * whenever the queue becomes empty, and when flush() or close() are called.
+ **/
+public class BufferedEventSink implements EventSink {
+    /**
+     * Default number of events that can be pending
+     **/
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final Object STOP = new Object();
+
+    /**
+     * Least important level that is written
+     **/
+    final EventLevel threshold;
+    /**
+     * Pending events (String), flush requests (CountDownLatch) and STOP
+     **/
+    final BlockingQueue<Object> queue;
+    final Writer out;
+    final Thread writer;
+    volatile boolean closed = false;
+    /**
+     * Held for reading while an item is queued and for writing by close(),
+     * so nothing can be queued behind STOP
+     **/
+    private final ReadWriteLock queueLock = new ReentrantReadWriteLock();
+    /**
+     * First error found when writing, after which events are discarded
+     **/
+    volatile IOException failure;
+
+    /**
+     * Sink that writes on the standard output
+     *
+     * @param threshold least important level that is written
+     **/
+    public BufferedEventSink(EventLevel threshold) {
+        this(new OutputStreamWriter(System.out), threshold, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param out       where the events are written. It is flushed, but not
+     *                  closed, by close()
+     * @param threshold least important level that is written
+     * @param capacity  number of events that can be pending
+     **/
+    public BufferedEventSink(Writer out, EventLevel threshold, int capacity) {
+        this.out = new BufferedWriter(out, 1 << 16);
+        this.threshold = threshold;
+        queue = new ArrayBlockingQueue<Object>(capacity);
+        writer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "tworld-events");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isEnabled(EventLevel level) {
+        return !closed && level.compareTo(threshold) <= 0;
+    }
+
+    public void log(EventLevel level, String text) {
+        if (isEnabled(level)) {
+            put(text);
+        }
+    }
+
+    public void flush() {
+        CountDownLatch done = new CountDownLatch(1);
+        if (put(done)) {
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Write the pending events and stop the background thread. Events and
+     * flushes that arrive once the sink is closed are ignored.
+     **/
+    public void close() {
+        queueLock.writeLock().lock();
+        try {
+            if (!closed) {
+                closed = true;
+                queue.put(STOP);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queueLock.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue an item for the background thread, unless the sink is closed
+     *
+     * @return true if the item was queued
+     **/
+    private boolean put(Object item) {
+        queueLock.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            queue.put(item);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            queueLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loop of the background thread
+     **/
+    private void drain() {
+        String separator = System.lineSeparator();
+        try {
+            while (true) {
+                Object item = queue.take();
+                if (item == STOP) {
+                    writeOut();
+                    return;
+                } else if (item instanceof CountDownLatch) {
+                    writeOut();
+                    ((CountDownLatch) item).countDown();
+                } else if (failure == null) {
+                    try {
+                        out.write((String) item);
+                        out.write(separator);
+                    } catch (IOException ex) {
+                        fail(ex);
+                    }
+                    if (queue.isEmpty()) {
+                        writeOut();
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Nothing else can be written
+        }
+    }
+
+    private void writeOut() {
+        if (failure == null) {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+    }
+
+    private void fail(IOException ex) {
+        failure = ex;
+        System.err.println("Error writing events: " + ex.getMessage());
+    }
+}
@@ -0,0 +1,43 @@
+package apryraz.tworld;
+
+/**
+ * Event sink that prints every event on the standard output as soon as it
+ * is reported, which is what the agent always did.
+ **/
+public class ConsoleEventSink implements EventSink {
+    /**
+     * Sink with all the events, used by default
+     **/
+    public static final ConsoleEventSink STDOUT = new ConsoleEventSink(EventLevel.DEBUG);
+
+    /**
+     * Least important level that is printed
+     **/
+    final EventLevel threshold;
+
+    /**
+     * @param threshold least important level that is printed
+     **/
+    public ConsoleEventSink(EventLevel threshold) {
+        this.threshold = threshold;
+    }
+
+    public boolean isEnabled(EventLevel level) {
+        return level.compareTo(threshold) <= 0;
+    }
+
+    public void log(EventLevel level, String text) {
+        if (isEnabled(level)) {
+            // System.out is looked up every time, in case it is redirected
+            System.out.println(text);
+        }
+    }
+
+    public void flush() {
+        System.out.flush();
+    }
+
+    public void close() {
+        flush();
+    }
+}
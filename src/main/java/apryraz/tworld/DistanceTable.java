@@ -0,0 +1,230 @@
+package apryraz.tworld;
+
+import java.util.BitSet;
+
+/**
+ * Precomputed distances between the positions of a WorldDim x WorldDim
+ * world. Distances only depend on the offsets |dx| and |dy| between two
+ * positions, so every table has WorldDim^2 entries and is shared, through
+ * a small bounded cache, by all the agents and environments of the same
+ * dimension. Tables are immutable once built.
+ **/
+public final class DistanceTable {
+    /**
+     * Maximum number of tables (dimensions) kept in the cache
+     **/
+    static final int MAX_CACHED_DIMENSIONS = 8;
+
+    private static final BoundedCache<Integer, DistanceTable> cache =
+            new BoundedCache<>(MAX_CACHED_DIMENSIONS);
+
+    /**
+     * Dimension of the world
+     **/
+    final int WorldDim;
+    /**
+     * floor(sqrt(dx^2 + dy^2)), indexed by |dx| * WorldDim + |dy|
+     **/
+    private final short[] distance;
+    /**
+     * Reading of a detector at offset (dx,dy) from the Treasure:
+     * 1 at the Treasure, 2 at distance 1, 3 at distance 2 and 0 otherwise
+     **/
+    private final byte[] reading;
+    /**
+     * Square rings used by the detector implications of Gamma: bit r
+     * (r = 0,1,2) is set when |dx| == r or |dy| == r, and bit 3 when
+     * |dx| >= 3 or |dy| >= 3
+     **/
+    private final byte[] rings;
+
+    private DistanceTable(int dim) {
+        WorldDim = dim;
+        distance = new short[dim * dim];
+        reading = new byte[dim * dim];
+        rings = new byte[dim * dim];
+        for (int dx = 0; dx < dim; dx++) {
+            for (int dy = 0; dy < dim; dy++) {
+                int index = dx * dim + dy;
+                distance[index] = (short) computeDistance(dx, dy);
+                reading[index] = (byte) computeReading(dx, dy);
+                rings[index] = (byte) computeRings(dx, dy);
+            }
+        }
+    }
+
+    private static int computeDistance(int dx, int dy) {
+        return (int) Math.floor(Math.sqrt(dx * dx + dy * dy));
+    }
+
+    private static int computeReading(int dx, int dy) {
+        switch (computeDistance(dx, dy)) {
+            case 0:
+                return 1;
+            case 1:
+                return 2;
+            case 2:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    private static int computeRings(int dx, int dy) {
+        int ring = 0;
+        for (int r = 0; r < 3; r++) {
+            if (dx == r || dy == r) {
+                ring |= 1 << r;
+            }
+        }
+        if (dx >= 3 || dy >= 3) {
+            ring |= 1 << 3;
+        }
+        return ring;
+    }
+
+    /**
+     * Get the table of a dimension, building it if it is not cached
+     *
+     * @param dim dimension of the world
+     * @return the table shared by all the worlds of that dimension
+     **/
+    public static DistanceTable forDim(int dim) {
+        DistanceTable table = cache.get(dim);
+        if (table == null) {
+            table = cache.putIfAbsent(dim, new DistanceTable(dim));
+        }
+        return table;
+    }
+
+    private int index(int dx, int dy) {
+        return Math.abs(dx) * WorldDim + Math.abs(dy);
+    }
+
+    /**
+     * Offsets between two positions of the world are always below WorldDim,
+     * anything else is computed without the table
+     **/
+    private boolean inTable(int dx, int dy) {
+        return Math.abs(dx) < WorldDim && Math.abs(dy) < WorldDim;
+    }
+
+    /**
+     * @param dx offset in x between two positions
+     * @param dy offset in y between two positions
+     * @return floor(sqrt(dx^2 + dy^2))
+     **/
+    public int distance(int dx, int dy) {
+        if (!inTable(dx, dy)) {
+            return computeDistance(Math.abs(dx), Math.abs(dy));
+        }
+        return distance[index(dx, dy)];
+    }
+
+    /**
+     * @param dx offset in x between the detector and the Treasure
+     * @param dy offset in y between the detector and the Treasure
+     * @return the reading of the metal detector: 0, 1, 2 or 3
+     **/
+    public int reading(int dx, int dy) {
+        if (!inTable(dx, dy)) {
+            return computeReading(Math.abs(dx), Math.abs(dy));
+        }
+        return reading[index(dx, dy)];
+    }
+
+    /**
+     * Check whether a position is on the square ring used by the detector
+     * implications of Gamma
+     *
+     * @param ring 0, 1 or 2 for the ring |dx| == ring or |dy| == ring,
+     *             3 for the positions with |dx| >= 3 or |dy| >= 3
+     * @param dx   offset in x between the detector and the position
+     * @param dy   offset in y between the detector and the position
+     * @return true if the position is on that ring
+     **/
+    public boolean onRing(int ring, int dx, int dy) {
+        int rings = inTable(dx, dy) ? this.rings[index(dx, dy)]
+                : computeRings(Math.abs(dx), Math.abs(dy));
+        return (rings & (1 << ring)) != 0;
+    }
+
+    /**
+     * Mask of the positions where the Treasure can be when the detector at
+     * (x,y) gives a reading. The positions with the same reading form square
+     * rings around the detector, since floor(sqrt(dx^2+dy^2)) is 1, 2 or at
+     * least 3 exactly when max(|dx|,|dy|) is.
+     *
+     * @param x       x coordinate of the detector
+     * @param y       y coordinate of the detector
+     * @param reading the reading of the detector
+     * @return a new BitSet, indexed by lineal position with offset 0
+     **/
+    public BitSet allowedBy(int x, int y, int reading) {
+        BitSet mask = new BitSet(WorldDim * WorldDim);
+        mask.set(0, WorldDim * WorldDim);
+        retainAllowed(mask, x, y, reading);
+        return mask;
+    }
+
+    /**
+     * Keep in a set only the positions allowed by a reading of the detector
+     * at (x,y), see allowedBy(). The set is changed in place, with a few
+     * range operations per row of the rings, and no mask is built.
+     *
+     * @param positions set indexed by lineal position with offset 0
+     **/
+    public void retainAllowed(BitSet positions, int x, int y, int reading) {
+        int ring = ringOf(reading);
+        clearRings(positions, x, y, 0, ring - 1);
+        clearRings(positions, x, y, reading == 0 ? WorldDim : ring + 1, WorldDim);
+    }
+
+    /**
+     * Remove from a set the positions allowed by a reading of the detector
+     * at (x,y), see allowedBy(). The set is changed in place.
+     *
+     * @param positions set indexed by lineal position with offset 0
+     **/
+    public void removeAllowed(BitSet positions, int x, int y, int reading) {
+        int ring = ringOf(reading);
+        clearRings(positions, x, y, ring, reading == 0 ? WorldDim : ring);
+    }
+
+    /**
+     * @return the first square ring allowed by a reading: the ring of a
+     * reading 0 is 3, and it also allows all the rings after it
+     **/
+    private static int ringOf(int reading) {
+        return reading == 0 ? 3 : reading - 1;
+    }
+
+    /**
+     * Clear the positions whose chessboard distance to (x,y) is between
+     * from and to, both included
+     **/
+    private void clearRings(BitSet positions, int x, int y, int from, int to) {
+        if (from > to) {
+            return;
+        }
+        int fromY = Math.max(1, y - to);
+        int toY = Math.min(WorldDim, y + to);
+        for (int i = Math.max(1, x - to); i <= Math.min(WorldDim, x + to); i++) {
+            if (Math.abs(i - x) >= from) {
+                positions.clear(lineal(i, fromY), lineal(i, toY) + 1);
+            } else {
+                // Only the columns of the rings, on both sides of the inner square
+                if (y - from >= fromY) {
+                    positions.clear(lineal(i, fromY), lineal(i, y - from) + 1);
+                }
+                if (y + from <= toY) {
+                    positions.clear(lineal(i, y + from), lineal(i, toY) + 1);
+                }
+            }
+        }
+    }
+
+    private int lineal(int x, int y) {
+        return (x - 1) * WorldDim + (y - 1);
+    }
+}
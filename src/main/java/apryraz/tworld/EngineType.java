@@ -0,0 +1,17 @@
+package apryraz.tworld;
+
+/**
+ * The inference engines that a TreasureFinder agent can delegate to
+ **/
+public enum EngineType {
+    /**
+     * SatInferenceEngine: the rules and the evidence are a boolean formula
+     * that is checked with a SAT solver
+     **/
+    SAT,
+    /**
+     * BitboardInferenceEngine: the set of possible positions is a bitboard
+     * that is intersected with the positions allowed by every evidence
+     **/
+    BITBOARD
+}
@@ -0,0 +1,21 @@
+package apryraz.tworld;
+
+/**
+ * Levels of the events reported by the agent and the environment, from the
+ * most to the least important one. A sink that accepts some level also
+ * accepts all the levels before it.
+ **/
+public enum EventLevel {
+    /**
+     * Problems with the input files
+     **/
+    ERROR,
+    /**
+     * Progress of every step: movements, readings and answers
+     **/
+    INFO,
+    /**
+     * Every message exchanged and the knowledge matrix after every step
+     **/
+    DEBUG
+}
@@ -0,0 +1,34 @@
+package apryraz.tworld;
+
+/**
+ * Destination of the events reported by the agent and the environment.
+ * Callers that need to build the text of an event should first check
+ * isEnabled(), so that nothing is built for events that are discarded.
+ **/
+public interface EventSink {
+
+    /**
+     * @param level level of an event
+     * @return true if events of this level are reported
+     **/
+    boolean isEnabled(EventLevel level);
+
+    /**
+     * Report an event, as one or more lines of text
+     *
+     * @param level level of the event
+     * @param text  text of the event, without the final line separator
+     **/
+    void log(EventLevel level, String text);
+
+    /**
+     * Wait until all the events reported so far have been written
+     **/
+    void flush();
+
+    /**
+     * Write all the pending events and release the resources of the sink.
+     * Events reported after closing the sink are discarded.
+     **/
+    void close();
+}
@@ -0,0 +1,123 @@
+package apryraz.tworld;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Reads, one step at a time, the expected states written by an
+ * ExpectedStatesWriter. Only the current expected state is kept in memory.
+ **/
+public class ExpectedStatesReader implements Closeable {
+    private final DataInputStream in;
+    final String fileName;
+    final int dim;
+    /**
+     * Positions excluded in the expected state of the current step
+     **/
+    private final BitSet excluded;
+    private int step = 0;
+
+    /**
+     * @param file the expected states file
+     * @throws IOException if the file can not be opened, or it is not an
+     *                     expected states file
+     **/
+    public ExpectedStatesReader(File file) throws IOException {
+        fileName = file.getPath();
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != ExpectedStatesWriter.MAGIC
+                    || in.readInt() != ExpectedStatesWriter.VERSION) {
+                throw new IOException(fileName + ": not an expected states file");
+            }
+            dim = in.readInt();
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        excluded = new BitSet(dim * dim);
+    }
+
+    /**
+     * Advance to the state expected after the next step
+     *
+     * @return false if there are no more steps
+     * @throws IOException if the file can not be read or is truncated
+     **/
+    public boolean nextStep() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        int count = readVarInt(first);
+        int c = -1;
+        for (int k = 0; k < count; k++) {
+            c += readVarInt(in.read());
+            if (c >= dim * dim) {
+                throw new IOException(fileName + ": position out of the world at step " + (step + 1));
+            }
+            excluded.set(c);
+        }
+        step++;
+        return true;
+    }
+
+    /**
+     * @return number of steps read so far
+     **/
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * Compare a state with the expected state of the current step
+     *
+     * @param state the state reached by an agent
+     * @return the first lineal position, (x-1) * dim + (y-1), where state
+     * differs from the expected state, or -1 if they are equal
+     **/
+    public int firstDifference(TFState state) {
+        BitSet difference = (BitSet) excluded.clone();
+        difference.xor(state.excluded);
+        return difference.nextSetBit(0);
+    }
+
+    /**
+     * @param x x coordinate of a position
+     * @param y y coordinate of a position
+     * @return true if the Treasure can be at (x,y) in the expected state
+     **/
+    public boolean isCandidate(int x, int y) {
+        return !excluded.get((x - 1) * dim + (y - 1));
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int readVarInt(int first) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b = first;
+        while (true) {
+            if (b < 0) {
+                throw new EOFException(fileName + ": truncated at step " + (step + 1));
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IOException(fileName + ": malformed number at step " + (step + 1));
+            }
+            b = in.read();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package apryraz.tworld;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Writes the states expected after every step of a scenario in a compact
+ * binary file. Knowledge is monotone, so every step only stores the
+ * positions excluded since the previous step, as gaps between their
+ * lineal indexes written as variable length integers. A step that excludes
+ * nothing takes one byte, whatever the dimension of the world.
+ *
+ * The file starts with the ints MAGIC, VERSION and the dimension, followed
+ * by one record per step: the number of positions and the gaps. See
+ * ExpectedStatesReader.
+ **/
+public class ExpectedStatesWriter implements Closeable {
+    static final int MAGIC = 0x54575354; // "TWST"
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    final int dim;
+    /**
+     * Positions excluded in the states written so far
+     **/
+    private final BitSet excluded;
+    private int numSteps = 0;
+
+    /**
+     * @param file where the states are written
+     * @param dim  dimension of the world
+     * @throws IOException if the file can not be created
+     **/
+    public ExpectedStatesWriter(File file, int dim) throws IOException {
+        this.dim = dim;
+        excluded = new BitSet(dim * dim);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dim);
+    }
+
+    /**
+     * Write the state expected after the next step
+     *
+     * @param state the expected state, which must keep excluded all the
+     *              positions excluded in the previous states
+     * @throws IOException if the state can not be written
+     **/
+    public void writeStep(TFState state) throws IOException {
+        if (state.wDim != dim) {
+            throw new IllegalArgumentException("state of dimension " + state.wDim
+                    + " in a file of dimension " + dim);
+        }
+        BitSet added = (BitSet) state.excluded.clone();
+        added.andNot(excluded);
+        BitSet removed = (BitSet) excluded.clone();
+        removed.andNot(state.excluded);
+        if (!removed.isEmpty()) {
+            throw new IllegalArgumentException("step " + (numSteps + 1)
+                    + " makes excluded positions possible again");
+        }
+        writeVarInt(added.cardinality());
+        int previous = -1;
+        for (int c = added.nextSetBit(0); c >= 0; c = added.nextSetBit(c + 1)) {
+            writeVarInt(c - previous);
+            previous = c;
+        }
+        excluded.or(added);
+        numSteps++;
+    }
+
+    /**
+     * @return number of steps written
+     **/
+    public int getNumSteps() {
+        return numSteps;
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
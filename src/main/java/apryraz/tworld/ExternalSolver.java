@@ -0,0 +1,297 @@
+package apryraz.tworld;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.IConstr;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.IVecInt;
+import org.sat4j.specs.TimeoutException;
+import org.sat4j.tools.SolverDecorator;
+
+/**
+ * Solver that answers every satisfiability question by running an external
+ * solver binary, such as minisat, glucose or kissat. The formula and the
+ * assumptions (as unit clauses) are written to a DIMACS file that is given
+ * to the binary as its last argument, and the answer is read from its
+ * output in the format of the SAT competitions: a line "s SATISFIABLE" or
+ * "s UNSATISFIABLE", and the model in lines starting with "v".
+ *
+ * The clauses are also kept in a Sat4j solver, which detects the
+ * contradictions when they are added, and keeps the number of constraints
+ * and the variables. Every question starts a process, so this is only
+ * worth it with inference modes that ask few questions, or solvers that
+ * are much faster than Sat4j on hard formulas.
+ * Sat4j 2.3.1 is compiled without generics, hence the raw SolverDecorator.
+ **/
+public class ExternalSolver extends SolverDecorator {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The binary and its arguments, without the DIMACS file
+     **/
+    final String[] command;
+    /**
+     * The clauses of the formula, in the order they were added
+     **/
+    private final Set<int[]> clauses = new LinkedHashSet<int[]>();
+    private final Map<IConstr, int[]> constrs = new IdentityHashMap<IConstr, int[]>();
+    private int maxVar = 0;
+    private long timeoutMs = 3600 * 1000L;
+    /**
+     * Model of the last satisfiable answer, indexed by variable
+     **/
+    private boolean[] lastModel;
+    private int[] lastModelLiterals;
+
+    /**
+     * @param command the binary and its arguments, without the DIMACS file
+     **/
+    public ExternalSolver(String... command) {
+        super(SolverFactory.newDefault());
+        if (command.length == 0) {
+            throw new IllegalArgumentException("empty external solver command");
+        }
+        this.command = command.clone();
+    }
+
+    /**
+     * @param command the binary and its arguments, separated by blanks
+     * @return true if the binary is an executable file, or an executable
+     * file in one of the directories of the PATH
+     **/
+    public static boolean isInstalled(String command) {
+        String binary = command.trim().split("\\s+")[0];
+        if (binary.isEmpty()) {
+            return false;
+        }
+        if (binary.indexOf(File.separatorChar) >= 0) {
+            return new File(binary).canExecute();
+        }
+        String path = System.getenv("PATH");
+        if (path != null) {
+            for (String dir : path.split(File.pathSeparator)) {
+                if (new File(dir, binary).canExecute()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public IConstr addClause(IVecInt literals) throws ContradictionException {
+        IConstr constr = decorated().addClause(literals);
+        int[] clause = new int[literals.size()];
+        for (int l = 0; l < clause.length; l++) {
+            clause[l] = literals.get(l);
+            maxVar = Math.max(maxVar, Math.abs(clause[l]));
+        }
+        clauses.add(clause);
+        if (constr != null) {
+            constrs.put(constr, clause);
+        }
+        return constr;
+    }
+
+    @Override
+    public boolean removeConstr(IConstr constr) {
+        int[] clause = constrs.remove(constr);
+        if (clause != null) {
+            clauses.remove(clause);
+        }
+        return decorated().removeConstr(constr);
+    }
+
+    @Override
+    public void setTimeout(int seconds) {
+        timeoutMs = seconds * 1000L;
+        decorated().setTimeout(seconds);
+    }
+
+    @Override
+    public void setTimeoutMs(long ms) {
+        timeoutMs = ms;
+        decorated().setTimeoutMs(ms);
+    }
+
+    @Override
+    public boolean isSatisfiable() throws TimeoutException {
+        return solve(null);
+    }
+
+    @Override
+    public boolean isSatisfiable(boolean global) throws TimeoutException {
+        return solve(null);
+    }
+
+    @Override
+    public boolean isSatisfiable(IVecInt assumptions) throws TimeoutException {
+        return solve(assumptions);
+    }
+
+    @Override
+    public boolean isSatisfiable(IVecInt assumptions, boolean global) throws TimeoutException {
+        return solve(assumptions);
+    }
+
+    @Override
+    public int[] findModel() throws TimeoutException {
+        return solve(null) ? model() : null;
+    }
+
+    @Override
+    public int[] findModel(IVecInt assumptions) throws TimeoutException {
+        return solve(assumptions) ? model() : null;
+    }
+
+    @Override
+    public boolean model(int var) {
+        if (lastModel == null || var < 1) {
+            throw new IllegalStateException("no model available");
+        }
+        return var < lastModel.length && lastModel[var];
+    }
+
+    @Override
+    public int[] model() {
+        if (lastModelLiterals == null) {
+            throw new IllegalStateException("no model available");
+        }
+        return lastModelLiterals.clone();
+    }
+
+    /**
+     * Write the formula with the assumptions, run the binary and read its answer
+     *
+     * @param assumptions literals assumed true, or null
+     * @return true if the binary says that the formula is satisfiable
+     * @throws TimeoutException if the binary does not answer within the timeout
+     **/
+    private boolean solve(IVecInt assumptions) throws TimeoutException {
+        lastModel = null;
+        lastModelLiterals = null;
+        int numVars = Math.max(maxVar, decorated().nVars());
+        int numAssumptions = assumptions == null ? 0 : assumptions.size();
+        for (int a = 0; a < numAssumptions; a++) {
+            numVars = Math.max(numVars, Math.abs(assumptions.get(a)));
+        }
+        File dimacs = null;
+        try {
+            dimacs = File.createTempFile("tworld-", ".cnf");
+            Writer out = new BufferedWriter(new FileWriter(dimacs), 1 << 16);
+            try {
+                out.write("p cnf " + numVars + " " + (clauses.size() + numAssumptions) + "\n");
+                StringBuilder line = new StringBuilder();
+                for (int[] clause : clauses) {
+                    line.setLength(0);
+                    for (int literal : clause) {
+                        line.append(literal).append(' ');
+                    }
+                    out.write(line.append("0\n").toString());
+                }
+                for (int a = 0; a < numAssumptions; a++) {
+                    out.write(assumptions.get(a) + " 0\n");
+                }
+            } finally {
+                out.close();
+            }
+            return run(dimacs, numVars);
+        } catch (IOException ex) {
+            throw new IllegalStateException("external solver " + command[0] + " failed", ex);
+        } finally {
+            if (dimacs != null) {
+                dimacs.delete();
+            }
+        }
+    }
+
+    private boolean run(File dimacs, int numVars) throws IOException, TimeoutException {
+        List<String> args = new ArrayList<String>(Arrays.asList(command));
+        args.add(dimacs.getPath());
+        ProcessBuilder builder = new ProcessBuilder(args);
+        builder.redirectErrorStream(true);
+        final Process process = builder.start();
+        final boolean[] expired = new boolean[1];
+        Timer timer = new Timer(true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (expired) {
+                    expired[0] = true;
+                }
+                process.destroy();
+            }
+        }, Math.max(1, timeoutMs));
+        String status = null;
+        boolean[] model = new boolean[numVars + 1];
+        List<Integer> literals = new ArrayList<Integer>();
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("s ")) {
+                        status = line.substring(2).trim();
+                    } else if (line.startsWith("v ")) {
+                        for (String token : line.substring(2).trim().split("\\s+")) {
+                            if (token.isEmpty()) {
+                                continue;
+                            }
+                            int literal = Integer.parseInt(token);
+                            if (literal != 0) {
+                                literals.add(literal);
+                                if (literal > 0 && literal <= numVars) {
+                                    model[literal] = true;
+                                }
+                            }
+                        }
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            process.waitFor();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new TimeoutException("interrupted while waiting for " + command[0]);
+        } finally {
+            timer.cancel();
+        }
+        synchronized (expired) {
+            if (expired[0]) {
+                throw new TimeoutException(command[0] + " exceeded " + timeoutMs + " ms");
+            }
+        }
+        if ("SATISFIABLE".equals(status)) {
+            lastModel = model;
+            lastModelLiterals = new int[literals.size()];
+            for (int l = 0; l < lastModelLiterals.length; l++) {
+                lastModelLiterals[l] = literals.get(l);
+            }
+            return true;
+        }
+        if ("UNSATISFIABLE".equals(status)) {
+            return false;
+        }
+        throw new IOException(command[0] + " gave no answer, status " + status
+                + ", exit code " + process.exitValue());
+    }
+}
@@ -0,0 +1,156 @@
+package apryraz.tworld;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Step source that reads a steps file while the agent moves. The file has
+ * the steps x1,y1 x2,y2 ... xn,yn separated by spaces, tabs or line breaks,
+ * so long sequences can be split in several lines. The file is read in
+ * chunks and the numbers are parsed directly from the bytes, so the memory
+ * used does not depend on the length of the file.
+ **/
+public class FileStepSource implements StepSource {
+    /**
+     * Size of the chunks read from the file
+     **/
+    static final int CHUNK_SIZE = 1 << 16;
+
+    final String fileName;
+    private final FileChannel channel;
+    private final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    /**
+     * Bytes of the file consumed before the current chunk
+     **/
+    private long chunkStart = 0;
+    /**
+     * Position in the file of the step being read
+     **/
+    private long stepStart = 0;
+    private boolean closed = false;
+
+    /**
+     * @param stepsFile name of the steps file
+     * @throws java.io.FileNotFoundException if the file can not be opened
+     **/
+    public FileStepSource(String stepsFile) throws IOException {
+        this(new File(stepsFile));
+    }
+
+    /**
+     * @param stepsFile the steps file
+     * @throws java.io.FileNotFoundException if the file can not be opened
+     **/
+    public FileStepSource(File stepsFile) throws IOException {
+        fileName = stepsFile.getPath();
+        channel = new FileInputStream(stepsFile).getChannel();
+        chunk.flip();
+    }
+
+    /**
+     * Read the next step of the file. The file is closed when the last step
+     * has been read.
+     *
+     * @return the next step, or null at the end of the file
+     * @throws IOException if the file can not be read, or the next step is
+     *                     not two numbers separated by a comma (any other
+     *                     byte, also a non ASCII one, is a malformed step)
+     **/
+    public Position nextStep() throws IOException {
+        if (closed) {
+            return null;
+        }
+        int c = read();
+        while (isSeparator(c)) {
+            c = read();
+        }
+        if (c < 0) {
+            close();
+            return null;
+        }
+        stepStart = chunkStart + chunk.position() - 1;
+        int x = readNumber(c);
+        if (read() != ',') {
+            throw malformed();
+        }
+        int y = readNumber(read());
+        c = peek();
+        if (c >= 0 && !isSeparator(c)) {
+            throw malformed();
+        }
+        return new Position(x, y);
+    }
+
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /**
+     * @param first the first digit of the number
+     * @return the number formed by first and the digits that follow it
+     **/
+    private int readNumber(int first) throws IOException {
+        if (first < '0' || first > '9') {
+            throw malformed();
+        }
+        int value = first - '0';
+        int c = peek();
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            if (value > 1000000) {
+                throw malformed();
+            }
+            read();
+            c = peek();
+        }
+        return value;
+    }
+
+    private static boolean isSeparator(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * @return the next byte of the file, from 0 to 255, or -1 at the end
+     **/
+    private int read() throws IOException {
+        return fill() ? chunk.get() & 0xFF : -1;
+    }
+
+    /**
+     * @return the next byte of the file without consuming it, from 0 to
+     * 255, or -1 at the end
+     **/
+    private int peek() throws IOException {
+        return fill() ? chunk.get(chunk.position()) & 0xFF : -1;
+    }
+
+    /**
+     * Read the next chunk of the file if all the current one has been consumed
+     *
+     * @return false at the end of the file
+     **/
+    private boolean fill() throws IOException {
+        while (!chunk.hasRemaining()) {
+            chunkStart += chunk.limit();
+            chunk.clear();
+            int n = channel.read(chunk);
+            chunk.flip();
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException malformed() {
+        return new IOException(fileName + ": malformed step at byte " + stepStart
+                + ", expected x,y");
+    }
+}
@@ -0,0 +1,400 @@
+package apryraz.tworld;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.IVecInt;
+
+/**
+ * The clauses of the initial formula Gamma of a SatInferenceEngine, which
+ * only depend on the dimension of the world and on the encoding options,
+ * together with the offsets of its sets of variables. A template is
+ * generated once and shared by all the engines of the same kind, which
+ * only have to add its clauses to their solvers.
+ *
+ * The clauses are stored one after the other as ints: the number of
+ * literals of the clause followed by its literals. With a cache directory,
+ * templates are also written to a file, with a header before the clauses,
+ * and the next runs map that file into memory instead of generating the
+ * clauses again.
+ *
+ * The templates in memory are only softly referenced, so the garbage
+ * collector can reclaim the big ones when no engine is being built from
+ * them, and clearCache() drops them all.
+ **/
+final class GammaTemplate {
+    /**
+     * Maximum number of templates kept in memory
+     **/
+    static final int MAX_CACHED_TEMPLATES = 4;
+    /**
+     * Formulas with more literals are not kept in the heap: without a cache
+     * directory every engine generates them again. An eager Gamma has about
+     * 12 N^4 literals, so this allows worlds up to N=40 (about 512 MB)
+     **/
+    static final long MAX_TEMPLATE_LITERALS = 1L << 27;
+    /**
+     * Version of the clauses generated by SatInferenceEngine. It must change
+     * whenever the generated clauses change, so that old files are not used.
+     **/
+    static final int ENCODING_VERSION = 1;
+    /**
+     * Encoding options that change the clauses, part of the key of a template
+     **/
+    static final int FLAG_LAZY = 1;
+    static final int FLAG_LADDER = 2;
+
+    private static final int MAGIC = 0x54574743; // "TWGC"
+    private static final int HEADER_INTS = 15;
+
+    private static final BoundedCache<Integer, SoftReference<GammaTemplate>> cache =
+            new BoundedCache<Integer, SoftReference<GammaTemplate>>(MAX_CACHED_TEMPLATES);
+
+    final int dim, flags;
+    final int numVariables, numClauses;
+    final int TreasurePastOffset, TreasureFutureOffset;
+    final int Detector0Offset, Detector1Offset, Detector2Offset, Detector3Offset;
+    final int pirateAboveOffset, pirateBelowOffset;
+    /**
+     * The clauses, in the heap or mapped from a file
+     **/
+    private final IntBuffer clauses;
+
+    /**
+     * @param header  the header of the template, see header()
+     * @param clauses the clauses, from position 0 to the limit
+     **/
+    private GammaTemplate(int[] header, IntBuffer clauses) {
+        dim = header[2];
+        flags = header[3];
+        numVariables = header[4];
+        TreasurePastOffset = header[5];
+        TreasureFutureOffset = header[6];
+        Detector0Offset = header[7];
+        Detector1Offset = header[8];
+        Detector2Offset = header[9];
+        Detector3Offset = header[10];
+        pirateAboveOffset = header[11];
+        pirateBelowOffset = header[12];
+        numClauses = header[13];
+        this.clauses = clauses;
+    }
+
+    /**
+     * @return the flags of the encoding selected in config
+     **/
+    static int flagsOf(TFConfig config) {
+        return (config.lazyGamma ? FLAG_LAZY : 0) | (config.pirateLadder ? FLAG_LADDER : 0);
+    }
+
+    /**
+     * Get the template of a dimension and encoding. It is taken from the
+     * templates in memory, else from the cache directory of config, else
+     * generated (and written to the cache directory).
+     *
+     * @param dim    dimension of the world
+     * @param config options of the agent: encoding and cache directory
+     * @return the shared template, or null if the formula is too big to be
+     * kept in memory and there is no cache directory
+     * @throws ContradictionException if the rules of the world are contradictory
+     **/
+    static GammaTemplate forDim(int dim, TFConfig config) throws ContradictionException {
+        int flags = flagsOf(config);
+        Integer key = dim * 8 + flags;
+        GammaTemplate template = cached(key);
+        if (template != null) {
+            return template;
+        }
+        File dir = config.gammaCacheDir;
+        if (dir != null) {
+            File file = new File(dir, fileName(dim, flags));
+            template = load(file, dim, flags, config.events);
+            if (template == null) {
+                template = generate(dim, flags, file, config.events);
+            }
+        }
+        // Without a usable cache directory, the template is kept in the heap
+        if (template == null && estimateLiterals(dim, flags) <= MAX_TEMPLATE_LITERALS) {
+            template = generate(dim, flags, null, config.events);
+        }
+        return template == null ? null : share(key, template);
+    }
+
+    /**
+     * @return the template kept in memory for key, or null if there is none
+     * or it has been reclaimed
+     **/
+    private static GammaTemplate cached(Integer key) {
+        SoftReference<GammaTemplate> reference = cache.get(key);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * Keep a template in memory, unless another thread already did it
+     *
+     * @return the template that remains in memory for key
+     **/
+    private static GammaTemplate share(Integer key, GammaTemplate template) {
+        synchronized (cache) {
+            GammaTemplate previous = cached(key);
+            if (previous != null) {
+                return previous;
+            }
+            cache.put(key, new SoftReference<GammaTemplate>(template));
+            return template;
+        }
+    }
+
+    /**
+     * Forget all the templates kept in memory. The engines already created
+     * keep their clauses; the next ones load or generate the templates again.
+     **/
+    static void clearCache() {
+        cache.clear();
+    }
+
+    private static long estimateLiterals(int dim, int flags) {
+        long cells = (long) dim * dim;
+        if ((flags & FLAG_LAZY) != 0) {
+            return (flags & FLAG_LADDER) != 0 ? 8 * cells : 4 * cells;
+        }
+        // Without the ladder, the pirate implications are about 2 N^4 literals
+        return (flags & FLAG_LADDER) != 0 ? 10 * cells * cells : 12 * cells * cells;
+    }
+
+    /**
+     * @return the name of the file of a template in the cache directory
+     **/
+    static String fileName(int dim, int flags) {
+        return "gamma-" + dim + "-f" + flags + "-v" + ENCODING_VERSION + ".cnf";
+    }
+
+    /**
+     * Generate a template, in the heap or in a file
+     *
+     * @param file   where the template is written, or null to keep it in the heap
+     * @param events where a file that cannot be written is reported
+     * @return the template, or null if the file could not be written
+     **/
+    static GammaTemplate generate(int dim, int flags, File file, EventSink events)
+            throws ContradictionException {
+        if (file == null) {
+            Builder builder = new Builder(null);
+            SatInferenceEngine.recordGamma(dim, flags, builder);
+            return fromBuilder(builder, dim, flags);
+        }
+        File tmp = null;
+        boolean moved = false;
+        try {
+            file.getParentFile().mkdirs();
+            tmp = File.createTempFile("gamma-", ".tmp", file.getParentFile());
+            RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+            try {
+                FileChannel channel = out.getChannel();
+                channel.position(HEADER_INTS * 4);
+                Builder builder = new Builder(channel);
+                SatInferenceEngine.recordGamma(dim, flags, builder);
+                builder.finish();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_INTS * 4);
+                header.asIntBuffer().put(builder.header(dim, flags));
+                channel.write(header, 0);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            return load(file, dim, flags, events);
+        } catch (IOException ex) {
+            events.log(EventLevel.ERROR, "MSG.   => Gamma template not written to " + file
+                    + ": " + ex.getMessage());
+            return null;
+        } finally {
+            // Also when generating the clauses fails with another exception
+            if (tmp != null && !moved) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * @return a template in the heap with the clauses stored in builder
+     **/
+    static GammaTemplate fromBuilder(Builder builder, int dim, int flags) {
+        return new GammaTemplate(builder.header(dim, flags),
+                IntBuffer.wrap(Arrays.copyOf(builder.buffer, builder.size)));
+    }
+
+    /**
+     * Map a template file into memory
+     *
+     * @param events where a file that cannot be read is reported
+     * @return the template, or null if the file does not exist, cannot be
+     * read or it is not a complete template of this dimension, encoding and
+     * version
+     **/
+    static GammaTemplate load(File file, int dim, int flags, EventSink events) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                if (size < HEADER_INTS * 4 || size > Integer.MAX_VALUE) {
+                    return null;
+                }
+                // The mapping remains valid after the channel is closed
+                IntBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asIntBuffer();
+                int[] header = new int[HEADER_INTS];
+                mapped.get(header);
+                if (header[0] != MAGIC || header[1] != ENCODING_VERSION || header[2] != dim
+                        || header[3] != flags || header[14] != mapped.remaining()) {
+                    return null;
+                }
+                return new GammaTemplate(header, mapped.slice());
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            events.log(EventLevel.ERROR, "MSG.   => Gamma template not read from " + file
+                    + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Add all the clauses of the template to a solver, in the order they
+     * were generated
+     *
+     * @param solver a solver with at least numVariables variables
+     * @throws ContradictionException if the rules of the world are contradictory
+     **/
+    void addTo(ISolver solver) throws ContradictionException {
+        IntBuffer in = clauses.duplicate();
+        VecInt clause = new VecInt(8);
+        while (in.hasRemaining()) {
+            clause.clear();
+            for (int l = in.get(); l > 0; l--) {
+                clause.push(in.get());
+            }
+            solver.addClause(clause);
+        }
+    }
+
+    /**
+     * Write the template in DIMACS format
+     *
+     * @param out where the formula is written
+     **/
+    void writeDimacs(Writer out) throws IOException {
+        out.write("c Gamma of the Treasure World, dimension " + dim + ", flags " + flags
+                + ", encoding version " + ENCODING_VERSION + "\n");
+        out.write("p cnf " + numVariables + " " + numClauses + "\n");
+        IntBuffer in = clauses.duplicate();
+        StringBuilder line = new StringBuilder();
+        while (in.hasRemaining()) {
+            line.setLength(0);
+            for (int l = in.get(); l > 0; l--) {
+                line.append(in.get()).append(' ');
+            }
+            line.append("0\n");
+            out.write(line.toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Stores the clauses while Gamma is generated, in the heap or written
+     * to a file through a buffer
+     **/
+    static final class Builder {
+        final FileChannel out;
+        int[] buffer = new int[1 << 16];
+        int size = 0;
+        long numInts = 0;
+        int numClauses = 0;
+        IOException failure;
+        /**
+         * The engine that generated the clauses, with the offsets
+         **/
+        SatInferenceEngine engine;
+
+        /**
+         * @param out where the clauses are written, or null to keep them in the heap
+         **/
+        Builder(FileChannel out) {
+            this.out = out;
+        }
+
+        void add(IVecInt clause) {
+            int length = clause.size();
+            if (size + length + 1 > buffer.length) {
+                if (out != null) {
+                    writeBuffer();
+                }
+                if (size + length + 1 > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length + 1));
+                }
+            }
+            buffer[size++] = length;
+            for (int l = 0; l < length; l++) {
+                buffer[size++] = clause.get(l);
+            }
+            numInts += length + 1;
+            numClauses++;
+        }
+
+        private void writeBuffer() {
+            if (failure == null) {
+                try {
+                    ByteBuffer bytes = ByteBuffer.allocate(size * 4);
+                    bytes.asIntBuffer().put(buffer, 0, size);
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            }
+            size = 0;
+        }
+
+        /**
+         * Write the clauses that remain in the buffer
+         *
+         * @throws IOException if some write failed
+         **/
+        void finish() throws IOException {
+            writeBuffer();
+            if (failure != null) {
+                throw failure;
+            }
+            if (numInts > Integer.MAX_VALUE / 4 - HEADER_INTS) {
+                throw new IOException("Gamma too big for a template file: " + numInts + " ints");
+            }
+        }
+
+        int[] header(int dim, int flags) {
+            return new int[]{MAGIC, ENCODING_VERSION, dim, flags, engine.actualLiteral - 1,
+                    engine.TreasurePastOffset, engine.TreasureFutureOffset,
+                    engine.Detector0Offset, engine.Detector1Offset,
+                    engine.Detector2Offset, engine.Detector3Offset,
+                    engine.pirateAboveOffset, engine.pirateBelowOffset,
+                    numClauses, (int) numInts};
+        }
+    }
+}
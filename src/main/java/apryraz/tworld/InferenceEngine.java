@@ -0,0 +1,118 @@
+package apryraz.tworld;
+
+import java.util.BitSet;
+
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * The reasoning part of the TreasureFinder agent. An engine receives the
+ * evidence obtained by the agent after every movement, and tells which
+ * positions of the world cannot contain the Treasure.
+ *
+ * Positions are identified by their lineal index with offset 0, that is
+ * (x-1) * WorldDim + (y-1), as returned by TreasureFinder.coordToLineal(x,y,0).
+ **/
+public interface InferenceEngine {
+
+    /**
+     * Make the conclusions obtained in the last call to
+     * performInferenceQuestions() part of the knowledge about the past.
+     *
+     * @throws ContradictionException if the conclusions contradict the knowledge
+     **/
+    void addLastFutureClausesToPastClauses() throws ContradictionException;
+
+    /**
+     * Add the evidence obtained from the metal detector at (x,y)
+     *
+     * @param x       x coordinate of the detector
+     * @param y       y coordinate of the detector
+     * @param reading reading of the detector: 0, 1, 2 or 3
+     * @throws ContradictionException if the evidence contradicts the knowledge
+     **/
+    void addDetectorEvidence(int x, int y, int reading) throws ContradictionException;
+
+    /**
+     * Add the answer of the pirate found at (x,y)
+     *
+     * @param x  x coordinate of the pirate
+     * @param y  y coordinate of the pirate
+     * @param up true if the pirate said the Treasure is up of y
+     * @throws ContradictionException if the evidence contradicts the knowledge
+     **/
+    void addPirateEvidence(int x, int y, boolean up) throws ContradictionException;
+
+    /**
+     * Find out the positions where the Treasure cannot be, given all the
+     * evidence added so far.
+     *
+     * @return the positions excluded in this call that were not excluded
+     * by any previous call
+     * @throws TimeoutException if the engine exceeds its time limit
+     **/
+    BitSet performInferenceQuestions() throws TimeoutException;
+
+    /**
+     * Set the time by which performInferenceQuestions() and resumePending()
+     * must return. The positions they can not check before it are left
+     * pending: they are not excluded, and they are checked first in the
+     * next call.
+     *
+     * @param deadline a System.nanoTime() value, or Long.MAX_VALUE to check
+     *                 all the positions in every call
+     **/
+    void setDeadline(long deadline);
+
+    /**
+     * @return the positions left unchecked by the last call to
+     * performInferenceQuestions() or resumePending(). The set must not be
+     * modified.
+     **/
+    BitSet getPending();
+
+    /**
+     * Check the pending positions, with all the evidence added so far,
+     * until the deadline.
+     *
+     * @return the positions excluded in this call, which are also part of
+     * the conclusions of the last step
+     * @throws TimeoutException if the engine exceeds its time limit
+     **/
+    BitSet resumePending() throws TimeoutException;
+
+    /**
+     * Make some positions part of the knowledge about the past, as if they
+     * had been excluded by previous steps, when the knowledge of an agent
+     * is restored from a checkpoint. The evidence is added before.
+     *
+     * @param excluded positions where the Treasure cannot be
+     * @throws ContradictionException if they contradict the knowledge
+     **/
+    void restoreExcluded(BitSet excluded) throws ContradictionException;
+
+    /**
+     * Find out the positions that would be excluded if the metal detector
+     * at (x,y) gave the given reading, without adding that evidence to the
+     * knowledge of the engine.
+     *
+     * @param x       x coordinate of the detector
+     * @param y       y coordinate of the detector
+     * @param reading hypothetical reading of the detector: 0, 1, 2 or 3
+     * @return the positions that would be excluded and were not excluded by
+     * any previous call to performInferenceQuestions(). All of them if the
+     * reading contradicts the knowledge of the engine.
+     * @throws TimeoutException if the engine exceeds its time limit
+     **/
+    BitSet whatIf(int x, int y, int reading) throws TimeoutException;
+
+    /**
+     * Read the counters of the work done by the engine since it was created:
+     * the calls to the SAT solver, the conflicts, propagations and learned
+     * clauses of its solvers, and the number of constraints of its formula.
+     * An engine without solver leaves them at 0.
+     *
+     * @param counters where the cumulative counters are stored
+     **/
+    void readCounters(StepMetrics counters);
+}
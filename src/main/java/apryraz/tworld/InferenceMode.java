@@ -0,0 +1,31 @@
+package apryraz.tworld;
+
+/**
+ * Strategies that the TreasureFinder agent can use to find out which cells
+ * of the world cannot contain the treasure after every step.
+ **/
+public enum InferenceMode {
+    /**
+     * Ask the solver once for every cell of the world, whether Gamma plus
+     * "the treasure is at that cell" is satisfiable.
+     **/
+    PER_CELL,
+    /**
+     * Backbone style inference where every model found proves that its
+     * treasure cell is still possible. Undecided cells are queried one at a
+     * time with an assumption literal.
+     **/
+    BACKBONE_ASSUMPTIONS,
+    /**
+     * Backbone style inference where the solver is asked, under a fresh
+     * selector literal, for a model that puts the treasure in any of the
+     * undecided cells. When there is none, all of them are excluded at once.
+     **/
+    BACKBONE_BLOCKING,
+    /**
+     * Same questions as PER_CELL, but the cells are split among a pool of
+     * solver replicas that hold the same clauses, and checked in parallel.
+     * The number of replicas is set with TFConfig.setParallelism.
+     **/
+    PARALLEL
+}
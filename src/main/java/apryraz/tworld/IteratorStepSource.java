@@ -0,0 +1,25 @@
+package apryraz.tworld;
+
+import java.util.Iterator;
+
+/**
+ * Step source that takes the steps from an iterator, for example from a
+ * list of steps or from a generator of steps
+ **/
+public class IteratorStepSource implements StepSource {
+    final Iterator<Position> steps;
+
+    /**
+     * @param steps the positions to move to, in order
+     **/
+    public IteratorStepSource(Iterator<Position> steps) {
+        this.steps = steps;
+    }
+
+    public Position nextStep() {
+        return steps.hasNext() ? steps.next() : null;
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,95 @@
+package apryraz.tworld;
+
+import java.io.PrintStream;
+
+/**
+ * Histogram of durations in nanoseconds, with one bucket per power of two.
+ * It is not thread safe: every thread records in its own histogram, and the
+ * histograms are merged at the end.
+ **/
+public class LatencyHistogram {
+    /**
+     * counts[b] is the number of durations d with 2^b <= d < 2^(b+1),
+     * except counts[0], which also counts durations of 0
+     **/
+    final long[] counts = new long[64];
+    long total = 0, sum = 0;
+    long min = Long.MAX_VALUE, max = 0;
+
+    /**
+     * @param nanos a duration in nanoseconds
+     **/
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[63 - Long.numberOfLeadingZeros(nanos | 1)]++;
+        total++;
+        sum += nanos;
+        min = Math.min(min, nanos);
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * Add all the durations recorded in other to this histogram
+     **/
+    public void merge(LatencyHistogram other) {
+        for (int b = 0; b < counts.length; b++) {
+            counts[b] += other.counts[b];
+        }
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public double getMean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    public long getMin() {
+        return total == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Upper bound of the bucket that holds the given fraction of the
+     * durations, which is at most twice the exact percentile
+     *
+     * @param fraction between 0 and 1, for example 0.99
+     * @return the upper bound of the bucket, never above the maximum
+     **/
+    public long getPercentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen >= rank && seen > 0) {
+                return Math.min(max, (1L << (b + 1)) - 1);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Print the summary and the non empty buckets, in microseconds
+     **/
+    public void print(PrintStream out) {
+        out.printf("  count %d, mean %.1f us, min %.1f us, p50 %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us%n",
+                total, getMean() / 1e3, getMin() / 1e3, getPercentile(0.5) / 1e3,
+                getPercentile(0.9) / 1e3, getPercentile(0.99) / 1e3, max / 1e3);
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0) {
+                out.printf("  [%12.1f, %12.1f) us %10d%n", (b == 0 ? 0 : (1L << b)) / 1e3,
+                        (1L << (b + 1)) / 1e3, counts[b]);
+            }
+        }
+    }
+}
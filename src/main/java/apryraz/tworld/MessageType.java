@@ -0,0 +1,74 @@
+package apryraz.tworld;
+
+/**
+ * Types of the messages exchanged between the agent and the environment.
+ * Each type knows the text used for it in field 0 of the String version
+ * of a message.
+ **/
+public enum MessageType {
+    /** agent asks to move to (x,y) **/
+    MOVETO("moveto"),
+    /** agent moved to (x,y); value is 1 if there is a pirate there **/
+    MOVEDTO("movedto"),
+    /** agent could not move to (x,y) **/
+    NOTMOVEDTO("notmovedto"),
+    /** agent asks for the reading of the detector at (x,y) **/
+    DETECTSAT("detectsat"),
+    /** reading of the detector at (x,y); value is the reading, 0 to 3,
+     *  which is also the text of field 0 **/
+    DETECTED(null),
+    /** agent asks the pirate at (x,y) whether the Treasure is up **/
+    TREASUREUP("treasureup"),
+    /** answer of the pirate at (x,y); value is 1 for "yes" and 0 for "no" **/
+    PIRATEANSWER(null),
+    /** empty answer of the environment **/
+    VOIDMSG("voidmsg"),
+    /** the agent had no more steps to perform **/
+    NOMESSAGE("NOMESSAGE"),
+    /** any other text in field 0 **/
+    UNKNOWN(null);
+
+    /**
+     * Text of field 0, for the types where it does not depend on the value
+     **/
+    final String text;
+
+    MessageType(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Find the type of a message from the text of its field 0
+     *
+     * @param text field 0 of a message
+     * @return the type of the message
+     **/
+    public static MessageType fromText(String text) {
+        switch (text) {
+            case "moveto":
+                return MOVETO;
+            case "movedto":
+                return MOVEDTO;
+            case "notmovedto":
+                return NOTMOVEDTO;
+            case "detectsat":
+                return DETECTSAT;
+            case "0":
+            case "1":
+            case "2":
+            case "3":
+                return DETECTED;
+            case "treasureup":
+                return TREASUREUP;
+            case "yes":
+            case "no":
+                return PIRATEANSWER;
+            case "voidmsg":
+                return VOIDMSG;
+            case "NOMESSAGE":
+                return NOMESSAGE;
+            default:
+                return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package apryraz.tworld;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.IConstr;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.IVecInt;
+import org.sat4j.specs.TimeoutException;
+import org.sat4j.tools.SolverDecorator;
+
+/**
+ * Portfolio of solvers that hold the same formula: every question is asked
+ * to all of them, each one on its own thread, and the first answer is
+ * taken. The others are stopped with expireTimeout() before returning, so
+ * the formula can be changed between questions.
+ *
+ * Sat4j has its own portfolio, ManyCore, but in version 2.3.1 it does not
+ * accept assumptions, which are used by all the inference questions.
+ * Sat4j 2.3.1 is compiled without generics, hence the raw SolverDecorator.
+ **/
+public class PortfolioSolver extends SolverDecorator {
+    private static final long serialVersionUID = 1L;
+
+    final ISolver[] members;
+    /**
+     * Constraint of every member for the constraint of the first member
+     **/
+    private final Map<IConstr, IConstr[]> constrs = new IdentityHashMap<IConstr, IConstr[]>();
+    /**
+     * Threads shared by all the portfolios. Idle threads end after a minute,
+     * so the portfolios need no close.
+     **/
+    private static final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "tworld-portfolio");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /**
+     * Member that gave the last answer, whose model is returned
+     **/
+    private int winner = 0;
+
+    /**
+     * @param members empty solvers, at least one
+     **/
+    public PortfolioSolver(ISolver... members) {
+        super(members[0]);
+        this.members = members.clone();
+    }
+
+    @Override
+    public int newVar(int howMany) {
+        for (int m = 1; m < members.length; m++) {
+            members[m].newVar(howMany);
+        }
+        return members[0].newVar(howMany);
+    }
+
+    @Override
+    public int nextFreeVarId(boolean reserve) {
+        for (int m = 1; m < members.length; m++) {
+            members[m].nextFreeVarId(reserve);
+        }
+        return members[0].nextFreeVarId(reserve);
+    }
+
+    @Override
+    public IConstr addClause(IVecInt literals) throws ContradictionException {
+        IConstr[] added = new IConstr[members.length];
+        for (int m = 0; m < members.length; m++) {
+            added[m] = members[m].addClause(literals);
+        }
+        if (added[0] != null) {
+            constrs.put(added[0], added);
+        }
+        return added[0];
+    }
+
+    @Override
+    public boolean removeConstr(IConstr constr) {
+        IConstr[] added = constrs.remove(constr);
+        if (added == null) {
+            return members[0].removeConstr(constr);
+        }
+        boolean removed = true;
+        for (int m = 0; m < members.length; m++) {
+            if (added[m] != null) {
+                removed &= members[m].removeConstr(added[m]);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void setTimeout(int seconds) {
+        for (ISolver member : members) {
+            member.setTimeout(seconds);
+        }
+    }
+
+    @Override
+    public void setTimeoutMs(long ms) {
+        for (ISolver member : members) {
+            member.setTimeoutMs(ms);
+        }
+    }
+
+    @Override
+    public void expireTimeout() {
+        for (ISolver member : members) {
+            member.expireTimeout();
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (ISolver member : members) {
+            member.reset();
+        }
+        constrs.clear();
+        winner = 0;
+    }
+
+    @Override
+    public boolean isSatisfiable() throws TimeoutException {
+        return solve(null);
+    }
+
+    @Override
+    public boolean isSatisfiable(boolean global) throws TimeoutException {
+        return solve(null);
+    }
+
+    @Override
+    public boolean isSatisfiable(IVecInt assumptions) throws TimeoutException {
+        return solve(assumptions);
+    }
+
+    @Override
+    public boolean isSatisfiable(IVecInt assumptions, boolean global) throws TimeoutException {
+        return solve(assumptions);
+    }
+
+    @Override
+    public int[] findModel() throws TimeoutException {
+        return solve(null) ? model() : null;
+    }
+
+    @Override
+    public int[] findModel(IVecInt assumptions) throws TimeoutException {
+        return solve(assumptions) ? model() : null;
+    }
+
+    @Override
+    public boolean model(int var) {
+        return members[winner].model(var);
+    }
+
+    @Override
+    public int[] model() {
+        return members[winner].model();
+    }
+
+    /**
+     * Ask the question to all the members, and stop the others when the
+     * first one answers
+     *
+     * @param assumptions literals assumed true, or null
+     * @return the first answer
+     * @throws TimeoutException if no member answers within the timeout
+     **/
+    private boolean solve(final IVecInt assumptions) throws TimeoutException {
+        CompletionService<Boolean> answers = new ExecutorCompletionService<Boolean>(pool);
+        List<Future<Boolean>> questions = new ArrayList<Future<Boolean>>(members.length);
+        final Map<Future<Boolean>, Integer> asked = new IdentityHashMap<Future<Boolean>, Integer>();
+        for (int m = 0; m < members.length; m++) {
+            final ISolver member = members[m];
+            Future<Boolean> question = answers.submit(new Callable<Boolean>() {
+                public Boolean call() throws TimeoutException {
+                    return assumptions == null ? member.isSatisfiable()
+                            : member.isSatisfiable(assumptions);
+                }
+            });
+            questions.add(question);
+            asked.put(question, m);
+        }
+        Boolean answer = null;
+        TimeoutException timeout = null;
+        try {
+            for (int a = 0; a < members.length && answer == null; a++) {
+                Future<Boolean> first = answers.take();
+                try {
+                    answer = first.get();
+                    winner = asked.get(first);
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof TimeoutException) {
+                        timeout = (TimeoutException) ex.getCause();
+                    } else if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    } else {
+                        throw new IllegalStateException(ex.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("interrupted while waiting for the portfolio");
+        } finally {
+            stopAll(questions);
+        }
+        if (answer == null) {
+            throw timeout != null ? timeout : new TimeoutException("no answer from the portfolio");
+        }
+        return answer;
+    }
+
+    /**
+     * Wait until all the members stop searching. A member may start its
+     * search after the first expireTimeout(), so it is repeated.
+     **/
+    private void stopAll(List<Future<Boolean>> questions) {
+        boolean interrupted = false;
+        for (int m = 0; m < members.length; m++) {
+            Future<Boolean> question = questions.get(m);
+            while (!question.isDone()) {
+                members[m].expireTimeout();
+                try {
+                    question.get(1, TimeUnit.MILLISECONDS);
+                } catch (java.util.concurrent.TimeoutException ex) {
+                    // still searching
+                } catch (ExecutionException ex) {
+                    // stopped
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,1333 @@
+package apryraz.tworld;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.sat4j.core.VecInt;
+
+import org.sat4j.specs.*;
+import org.sat4j.minisat.*;
+
+
+/**
+ * Inference engine that stores the rules of the Treasure World and the
+ * evidence obtained by the agent in a boolean formula, and uses a SAT
+ * solver to find out where the Treasure cannot be.
+ **/
+public class SatInferenceEngine implements InferenceEngine {
+
+    /**
+     * Array of clauses that represent conclusiones obtained in the last
+     * call to the inference function, but rewritten using the "past" variables
+     **/
+    ArrayList<VecInt> futureToPast = null;
+    /**
+     * SAT solver object that stores the logical boolean formula with the rules
+     * and current knowledge about not possible locations for Treasure
+     **/
+    ISolver solver;
+    /**
+     * With parallel inference, the pool of solvers that hold the same
+     * clauses as solver (which is the first one of them)
+     **/
+    ISolver[] replicas;
+    /**
+     * Pool of threads shared by all the agents that use parallel inference
+     **/
+    static ForkJoinPool inferencePool;
+    /**
+     * Dimension of the world and total size of the world (Dim^2)
+     **/
+    int WorldDim, WorldLinealDim;
+
+    /**
+     * This set of variables CAN be use to mark the beginning of different sets
+     * of variables in your propositional formula (but you may have more sets of
+     * variables in your solution).
+     **/
+    int TreasurePastOffset;
+    int TreasureFutureOffset;
+    int Detector0Offset=0;
+    int Detector1Offset=0;
+    int Detector2Offset=0;
+    int Detector3Offset=0;
+    int pirateAboveOffset=0;
+    int pirateBelowOffset=0;
+    /**
+     * With the ladder encoding of the pirate answers, the variables L_y that
+     * say that the row of the Treasure is at most y, for y = 1..WorldDim
+     **/
+    int ladderOffset=0;
+    int actualLiteral;
+
+    /**
+     * Options selected for the agent
+     **/
+    TFConfig config;
+    /**
+     * Distances between positions, shared with other worlds of the same dimension
+     **/
+    DistanceTable distances;
+    /**
+     * With a lazy Gamma, the detector implications (indexed by the lineal
+     * position of the detector variable) and the pirate implications that
+     * have already been added to the solver
+     **/
+    BitSet encodedDetector, encodedPirate;
+    /**
+     * Positions (lineal index with offset 0) where the agent already knows
+     * that the Treasure cannot be. Knowledge is monotone, so these positions
+     * are never asked again to the solver.
+     **/
+    BitSet knownExcluded;
+    /**
+     * Only while a GammaTemplate is generated: where the clauses are stored,
+     * instead of adding them to a solver
+     **/
+    GammaTemplate.Builder recording;
+    /**
+     * Positions excluded by unit clauses of the evidence added since the
+     * last inference. They are entailed, so the solver is not asked about them.
+     **/
+    BitSet evidenceExcluded;
+    /**
+     * Number of calls to isSatisfiable() made by the engine
+     **/
+    long satCalls;
+    /**
+     * System.nanoTime() by which the inference must return, or Long.MAX_VALUE
+     **/
+    long deadline = Long.MAX_VALUE;
+    /**
+     * Positions (lineal index with offset 0) that the last inference could
+     * not check before its deadline. They are checked first the next time.
+     **/
+    BitSet pending;
+
+
+    /**
+     * The class constructor creates the initial Boolean formula with the
+     * rules of the Treasure World.
+     *
+     * @param WDim   the dimension of the Treasure World
+     * @param config the options of the agent
+     * @throws ContradictionException if the rules of the world are contradictory
+     **/
+    public SatInferenceEngine(int WDim, TFConfig config) throws ContradictionException {
+        this.config = config;
+        WorldDim = WDim;
+        WorldLinealDim = WorldDim * WorldDim;
+        distances = DistanceTable.forDim(WorldDim);
+        knownExcluded = new BitSet(WorldLinealDim);
+        evidenceExcluded = new BitSet(WorldLinealDim);
+        pending = new BitSet(WorldLinealDim);
+        solver = buildGamma();
+    }
+
+    /**
+     * Engine that only generates the clauses of Gamma, for a GammaTemplate
+     **/
+    private SatInferenceEngine(int WDim, int flags, GammaTemplate.Builder recording) {
+        config = new TFConfig().setLazyGamma((flags & GammaTemplate.FLAG_LAZY) != 0)
+                .setPirateLadder((flags & GammaTemplate.FLAG_LADDER) != 0);
+        WorldDim = WDim;
+        WorldLinealDim = WorldDim * WorldDim;
+        distances = DistanceTable.forDim(WorldDim);
+        this.recording = recording;
+    }
+
+    /**
+     * Generate the clauses of Gamma for a dimension and encoding
+     *
+     * @param dim       dimension of the world
+     * @param flags     the encoding options, see GammaTemplate.flagsOf()
+     * @param recording where the clauses are stored. Its engine is set to
+     *                  the one that generated them, which has the offsets
+     * @throws ContradictionException if the rules of the world are contradictory
+     **/
+    static void recordGamma(int dim, int flags, GammaTemplate.Builder recording)
+            throws ContradictionException {
+        SatInferenceEngine engine = new SatInferenceEngine(dim, flags, recording);
+        engine.actualLiteral = 1;
+        engine.generateGamma();
+        recording.engine = engine;
+    }
+
+    /**
+     * Write the initial formula Gamma of the engines with the given
+     * dimension and options in DIMACS format
+     *
+     * @param dim    dimension of the world
+     * @param config options of the agent
+     * @param out    where the formula is written
+     * @throws ContradictionException if the rules of the world are contradictory
+     * @throws IOException            if the formula could not be written
+     **/
+    public static void exportDimacs(int dim, TFConfig config, Writer out)
+            throws ContradictionException, IOException {
+        GammaTemplate template = GammaTemplate.forDim(dim, config);
+        if (template == null) {
+            // Too big to be kept as a template, but it can still be written
+            GammaTemplate.Builder builder = new GammaTemplate.Builder(null);
+            recordGamma(dim, GammaTemplate.flagsOf(config), builder);
+            template = GammaTemplate.fromBuilder(builder, dim, GammaTemplate.flagsOf(config));
+        }
+        template.writeDimacs(out);
+    }
+
+    /**
+     * Add the clauses reggarding to the evidences we get from the metal detector.
+     *
+     * @param x coordinate for the possition x
+     * @param y coordinate for the possition y
+     * @param reading it correspounds to the range detected by the agent, will be between
+     *                the ranges: 0,1,2,3.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     * it prevents from inserting contradictory clauses in the formula.
+     */
+    @Override
+    public void addDetectorEvidence(int x, int y, int reading) throws ContradictionException{
+        if (config.lazyGamma) {
+            encodeDetectorImplications(x, y, reading);
+        }
+        addClause(x,y,+1,detectorOffset(reading));
+        // The Treasure cannot be where the detector would give another reading
+        for (int i = 1; i <= WorldDim; i++) {
+            for (int j = 1; j <= WorldDim; j++) {
+                if(distances.reading(i-x, j-y) != reading){
+                    addClause(i,j,-1,TreasureFutureOffset);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param reading a reading of the detector, between 0 and 3
+     * @return the offset of the detector variables for that reading
+     **/
+    private int detectorOffset(int reading) {
+        switch (reading) {
+            case 1:
+                return Detector1Offset;
+            case 2:
+                return Detector2Offset;
+            case 3:
+                return Detector3Offset;
+            default:
+                return Detector0Offset;
+        }
+    }
+
+    /**
+     * Add the clauses reggarding to the evidences we get from the pirate.
+     *
+     * @param x  coordinate x of the pirate
+     * @param y  coordinate y of the pirate
+     * @param up true if the pirate said the treasure is up of y
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     * it prevents from inserting contradictory clauses in the formula.
+     */
+    @Override
+    public void addPirateEvidence(int x, int y, boolean up) throws ContradictionException{
+        if (config.lazyGamma) {
+            encodePirateImplications(x, y, up);
+        }
+        if (config.pirateLadder) {
+            // One unit clause on the ladder: the row of the Treasure is
+            // greater than y if it is up, else at most y
+            VecInt unit = new VecInt();
+            unit.push(up ? -(ladderOffset + y - 1) : ladderOffset + y - 1);
+            addClause(unit);
+            // The positions it excludes are entailed by unit propagation
+            for (int i = 1; i <= WorldDim; i++) {
+                for (int j = up ? 1 : y + 1; j <= (up ? y : WorldDim); j++) {
+                    evidenceExcluded.set(coordToLineal(i, j, 0));
+                }
+            }
+            return;
+        }
+        if(up){
+            for (int i = 1; i <= WorldDim; i++) {
+                for (int j = y; j > 0; j--) {
+                    addClause(i,j, -1, TreasureFutureOffset);
+                }
+            }
+        }else{
+            for (int i = 1; i <= WorldDim; i++) {
+                for (int j = y+1; j <= WorldDim; j++) {
+                    addClause(i,j,-1,TreasureFutureOffset);
+                }
+            }
+        }
+    }
+
+    /**
+     * It models the information using solver's vector and adds it to the solver.
+     *
+     * @param x coordinate of the possition x
+     * @param y coordinate for the possition y
+     * @param sign it indicates the sign of an specific literal, may be -1 or 1
+     * @param offset it is the offset that corresponds to the subset of variables
+     *               that contains that literal.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void addClause(int x, int y, int sign, int offset) throws ContradictionException {
+        if (sign < 0 && offset == TreasureFutureOffset) {
+            evidenceExcluded.set(coordToLineal(x, y, 0));
+        }
+        int lc;
+        VecInt evidence = new VecInt();
+        if(sign == -1){
+            lc = -(coordToLineal(x,y,offset));
+        }else{
+            lc = coordToLineal(x,y,offset);
+        }
+        evidence.insertFirst(lc);
+        addClause(evidence);
+    }
+
+    /**
+     * Add a clause to the formula of the agent. With parallel inference the
+     * clause is added to every replica of the solver.
+     *
+     * @param clause the clause to add
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void addClause(VecInt clause) throws ContradictionException {
+        if (recording != null) {
+            recording.add(clause);
+        } else if (replicas == null) {
+            solver.addClause(clause);
+        } else {
+            for (ISolver replica : replicas) {
+                replica.addClause(clause);
+            }
+        }
+    }
+
+    /**
+     * This function should add all the clauses stored in the list
+     * futureToPast to the formula stored in solver.
+     * Use the function addClause( VecInt ) to add each clause to the solver
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     **/
+    @Override
+    public void addLastFutureClausesToPastClauses() throws ContradictionException {
+        if(futureToPast != null){
+            for(VecInt v: futureToPast){
+                addClause(v);
+            }
+        }
+
+    }
+
+    /**
+     * This function should check, using the future variables related
+     * to possible positions of Treasure, whether it is a logical consequence
+     * that Treasure is NOT at certain positions. This should be checked for all the
+     * positions of the Treasure World.
+     * The logical consequences obtained, should be then stored in the futureToPast list
+     * but using the variables corresponding to the "past" variables of the same positions
+     * <p>
+     * Positions excluded in previous steps are remembered in knownExcluded, so they
+     * are not asked again, and only the new conclusions are stored in futureToPast.
+     * The positions that can not be checked before the deadline are left pending.
+     *
+     * @return the positions (lineal index with offset 0) excluded in this call
+     * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+     *                          exceeds the timeout.
+     **/
+    @Override
+    public BitSet performInferenceQuestions() throws TimeoutException {
+        // Positions already excluded in previous steps stay excluded
+        BitSet undecided = new BitSet(WorldLinealDim);
+        undecided.set(0, WorldLinealDim);
+        undecided.andNot(knownExcluded);
+        // and the ones excluded by the new evidence need no question, so a
+        // reading of 1 leaves only the position of the detector to check
+        BitSet direct = (BitSet) evidenceExcluded.clone();
+        direct.andNot(knownExcluded);
+        undecided.andNot(direct);
+        evidenceExcluded.clear();
+
+        BitSet excluded = inferExclusions(undecided);
+        excluded.or(direct);
+
+        // Only the new conclusions have to be added as "past" clauses
+        futureToPast = new ArrayList<>();
+        addToPast(excluded);
+        return excluded;
+    }
+
+    @Override
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    @Override
+    public BitSet getPending() {
+        return pending;
+    }
+
+    /**
+     * The positions excluded are added to futureToPast, after the ones of
+     * the last call to performInferenceQuestions(), so they become past
+     * clauses at the beginning of the next step.
+     **/
+    @Override
+    public BitSet resumePending() throws TimeoutException {
+        BitSet undecided = (BitSet) pending.clone();
+        undecided.andNot(knownExcluded);
+        BitSet excluded = inferExclusions(undecided);
+        if (futureToPast == null) {
+            futureToPast = new ArrayList<>();
+        }
+        addToPast(excluded);
+        return excluded;
+    }
+
+    /**
+     * The positions are added as past clauses at once, and futureToPast is
+     * left empty, so the next step only adds its own conclusions.
+     **/
+    @Override
+    public void restoreExcluded(BitSet excluded) throws ContradictionException {
+        BitSet added = (BitSet) excluded.clone();
+        added.andNot(knownExcluded);
+        futureToPast = new ArrayList<>();
+        addToPast(added);
+        addLastFutureClausesToPastClauses();
+        futureToPast = new ArrayList<>();
+    }
+
+    /**
+     * Store new conclusions in futureToPast, with the "past" variables, and
+     * remember them in knownExcluded
+     *
+     * @param excluded positions (lineal index with offset 0) excluded
+     **/
+    private void addToPast(BitSet excluded) {
+        for (int c = excluded.nextSetBit(0); c >= 0; c = excluded.nextSetBit(c + 1)) {
+            VecInt past = new VecInt();
+            past.insertFirst(-(TreasurePastOffset + c));
+            futureToPast.add(past);
+        }
+        knownExcluded.or(excluded);
+    }
+
+    /**
+     * Check undecided positions with the inference mode selected in config,
+     * the ones left pending by the previous inference first, so that a short
+     * deadline does not leave the same positions unchecked for ever. The
+     * positions that are not checked before the deadline become the new
+     * pending positions.
+     *
+     * @param undecided positions (lineal index with offset 0) to check
+     * @return the set of positions (lineal index with offset 0) where the
+     * Treasure cannot be
+     * @throws TimeoutException if the solver exceeds its time limit and
+     *                          there is no deadline
+     **/
+    private BitSet inferExclusions(BitSet undecided) throws TimeoutException {
+        BitSet first = (BitSet) pending.clone();
+        first.and(undecided);
+        undecided.andNot(first);
+        BitSet excluded;
+        try {
+            if (first.isEmpty()) {
+                excluded = exclusions(undecided);
+            } else {
+                excluded = exclusions(first);
+                if (first.isEmpty()) {
+                    // All the pending positions were checked in time
+                    excluded.or(exclusions(undecided));
+                }
+            }
+        } finally {
+            if (deadline != Long.MAX_VALUE) {
+                for (ISolver s : replicas != null ? replicas : new ISolver[]{solver}) {
+                    s.setTimeout(config.solverTimeout);
+                }
+            }
+        }
+        undecided.or(first);
+        pending = undecided;
+        return excluded;
+    }
+
+    /**
+     * Check undecided positions with the inference mode selected in config.
+     * The positions checked are removed from undecided, so the ones left in
+     * it could not be checked before the deadline.
+     **/
+    private BitSet exclusions(BitSet undecided) throws TimeoutException {
+        BitSet excluded;
+        switch (config.inference) {
+            case BACKBONE_ASSUMPTIONS:
+                excluded = backboneExclusions(undecided, false);
+                break;
+            case BACKBONE_BLOCKING:
+                excluded = backboneExclusions(undecided, true);
+                break;
+            case PARALLEL:
+                excluded = parallelExclusions(undecided);
+                break;
+            default:
+                excluded = perCellExclusions(undecided);
+                break;
+        }
+        return excluded;
+    }
+
+    /**
+     * Ask a solver whether the formula is satisfiable under some assumptions.
+     * With a deadline, the question is limited to the time left until it.
+     *
+     * @param s             the solver
+     * @param assumptions   literals assumed true
+     * @param deadline      System.nanoTime() of the deadline, or Long.MAX_VALUE
+     * @param solverTimeout time limit of every question, in seconds
+     * @return the answer, or null if the deadline was reached first
+     * @throws TimeoutException if the solver exceeds its time limit and
+     *                          there is no deadline
+     **/
+    static Boolean ask(ISolver s, IVecInt assumptions, long deadline, int solverTimeout) throws
+            TimeoutException {
+        if (deadline == Long.MAX_VALUE) {
+            return s.isSatisfiable(assumptions);
+        }
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+            return null;
+        }
+        s.setTimeoutMs(Math.max(1, Math.min(left / 1000000L, solverTimeout * 1000L)));
+        try {
+            return s.isSatisfiable(assumptions);
+        } catch (TimeoutException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The hypothetical reading is not added as a clause, but given to the
+     * solver as the assumption that the detector variable of (x,y) and
+     * reading is true, which makes its implications exclude the positions
+     * with another reading. With a lazy Gamma those implications are added
+     * first if needed; they are part of Gamma, so they do not change what
+     * the agent knows. Every model found marks all the positions true in it
+     * as possible, so they are not asked again.
+     **/
+    @Override
+    public BitSet whatIf(int x, int y, int reading) throws TimeoutException {
+        if (config.lazyGamma) {
+            try {
+                encodeDetectorImplications(x, y, reading);
+            } catch (ContradictionException ex) {
+                // The implications only restrict an unassigned detector variable
+                throw new IllegalStateException(ex);
+            }
+        }
+        int detector = coordToLineal(x, y, detectorOffset(reading));
+        BitSet undecided = new BitSet(WorldLinealDim);
+        undecided.set(0, WorldLinealDim);
+        undecided.andNot(knownExcluded);
+        // Positions outside the ring of the reading are excluded without
+        // asking, by the implications of the detector variable
+        BitSet excluded = (BitSet) undecided.clone();
+        distances.removeAllowed(excluded, x, y, reading);
+        distances.retainAllowed(undecided, x, y, reading);
+
+        VecInt assumptions = new VecInt(2);
+        for (int c = undecided.nextSetBit(0); c >= 0; c = undecided.nextSetBit(c + 1)) {
+            assumptions.clear();
+            assumptions.push(detector);
+            assumptions.push(TreasureFutureOffset + c);
+            satCalls++;
+            if (solver.isSatisfiable(assumptions)) {
+                for (int p = undecided.nextSetBit(c + 1); p >= 0; p = undecided.nextSetBit(p + 1)) {
+                    if (solver.model(TreasureFutureOffset + p)) {
+                        undecided.clear(p);
+                    }
+                }
+            } else {
+                excluded.set(c);
+            }
+        }
+        return excluded;
+    }
+
+    @Override
+    public void readCounters(StepMetrics counters) {
+        counters.satCalls = satCalls;
+        counters.conflicts = 0;
+        counters.propagations = 0;
+        counters.learnedClauses = 0;
+        ISolver[] solvers = replicas != null ? replicas : new ISolver[]{solver};
+        for (ISolver s : solvers) {
+            // getStat() is a raw Map, Sat4j 2.3.1 is compiled without generics
+            Map<?, ?> stats = s.getStat();
+            counters.conflicts += statistic(stats, "conflicts");
+            counters.propagations += statistic(stats, "propagations");
+            counters.learnedClauses += statistic(stats, "learnedclauses");
+        }
+        counters.numConstraints = solver.nConstraints();
+    }
+
+    private static long statistic(Map<?, ?> stats, String name) {
+        Number value = (Number) stats.get(name);
+        return value == null ? 0 : value.longValue();
+    }
+
+    /**
+     * Check every undecided position with its own call to the solver.
+     *
+     * @param undecided positions (lineal index with offset 0) to check
+     * @return the set of positions (lineal index with offset 0) where the
+     * Treasure cannot be
+     * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+     *                          exceeds the timeout.
+     **/
+    private BitSet perCellExclusions(BitSet undecided) throws TimeoutException {
+        BitSet excluded = new BitSet(WorldLinealDim);
+        for (int c = undecided.nextSetBit(0); c >= 0; c = undecided.nextSetBit(c + 1)) {
+            VecInt positiveVar = new VecInt();
+            positiveVar.insertFirst(TreasureFutureOffset + c);
+
+            //It checks if Γ + positiveVar it is unsatisfiable
+            satCalls++;
+            Boolean sat = ask(solver, positiveVar, deadline, config.solverTimeout);
+            if (sat == null) {
+                break;
+            }
+            if (!sat) {
+                excluded.set(c);
+            }
+            undecided.clear(c);
+        }
+        return excluded;
+    }
+
+    /**
+     * Check the undecided positions in parallel. The positions are split in
+     * as many slices as solver replicas, and every slice is checked with its
+     * own replica, as an independent job of the shared ForkJoin pool.
+     *
+     * @param undecided positions (lineal index with offset 0) to check
+     * @return the set of positions (lineal index with offset 0) where the
+     * Treasure cannot be
+     * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+     *                          exceeds the timeout.
+     **/
+    private BitSet parallelExclusions(BitSet undecided) throws TimeoutException {
+        int numCells = undecided.cardinality();
+        int numSlices = Math.min(replicas.length, numCells);
+        ArrayList<EntailmentTask> tasks = new ArrayList<>(numSlices);
+        int cell = undecided.nextSetBit(0);
+        for (int r = 0; r < numSlices; r++) {
+            // Slices of consecutive undecided positions, of almost equal size
+            int size = numCells / numSlices + (r < numCells % numSlices ? 1 : 0);
+            BitSet slice = new BitSet(WorldLinealDim);
+            for (int k = 0; k < size; k++) {
+                slice.set(cell);
+                cell = undecided.nextSetBit(cell + 1);
+            }
+            tasks.add(new EntailmentTask(replicas[r], slice, TreasureFutureOffset, deadline,
+                    config.solverTimeout));
+        }
+
+        // Returns when all the tasks are done
+        List<Future<BitSet>> results = getInferencePool().invokeAll(tasks);
+        BitSet excluded = new BitSet(WorldLinealDim);
+        TimeoutException timeout = null;
+        for (int t = 0; t < tasks.size(); t++) {
+            EntailmentTask task = tasks.get(t);
+            BitSet sliceExcluded;
+            try {
+                sliceExcluded = results.get(t).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+            if (task.timeout != null) {
+                timeout = task.timeout;
+            } else {
+                excluded.or(sliceExcluded);
+                satCalls += task.checked.cardinality();
+                undecided.andNot(task.checked);
+            }
+        }
+        if (timeout != null) {
+            throw timeout;
+        }
+        return excluded;
+    }
+
+    private static synchronized ForkJoinPool getInferencePool() {
+        if (inferencePool == null) {
+            inferencePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return inferencePool;
+    }
+
+    /**
+     * Checks, with its own solver replica, whether the Treasure can be at each
+     * position of a slice of the world, until the deadline.
+     **/
+    private static class EntailmentTask implements Callable<BitSet> {
+        private final ISolver replica;
+        private final BitSet slice;
+        private final int futureOffset;
+        private final long deadline;
+        private final int solverTimeout;
+        /**
+         * Positions of the slice checked before the deadline
+         **/
+        final BitSet checked = new BitSet();
+        /**
+         * The timeout of the solver, if it expired
+         **/
+        TimeoutException timeout;
+
+        EntailmentTask(ISolver replica, BitSet slice, int futureOffset, long deadline,
+                       int solverTimeout) {
+            this.replica = replica;
+            this.slice = slice;
+            this.futureOffset = futureOffset;
+            this.deadline = deadline;
+            this.solverTimeout = solverTimeout;
+        }
+
+        @Override
+        public BitSet call() {
+            BitSet excluded = new BitSet();
+            try {
+                for (int c = slice.nextSetBit(0); c >= 0; c = slice.nextSetBit(c + 1)) {
+                    VecInt positiveVar = new VecInt();
+                    positiveVar.insertFirst(futureOffset + c);
+                    Boolean sat = ask(replica, positiveVar, deadline, solverTimeout);
+                    if (sat == null) {
+                        break;
+                    }
+                    if (!sat) {
+                        excluded.set(c);
+                    }
+                    checked.set(c);
+                }
+            } catch (TimeoutException ex) {
+                // Kept apart from the errors, parallelExclusions throws it
+                timeout = ex;
+            }
+            return excluded;
+        }
+    }
+
+    /**
+     * Backbone style inference. Every model returned by the solver proves
+     * that the positions where it puts the Treasure are still possible, so
+     * those positions are decided without asking for them. Only the positions
+     * that are still undecided are queried, either one at a time with an
+     * assumption literal, or all together with a clause guarded by a
+     * selector literal. The positions decided are removed from undecided.
+     *
+     * @param undecided positions (lineal index with offset 0) to check
+     * @param blocking  true to query all the undecided positions at once
+     * @return the set of positions (lineal index with offset 0) where the
+     * Treasure cannot be
+     * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+     *                          exceeds the timeout.
+     **/
+    private BitSet backboneExclusions(BitSet undecided, boolean blocking) throws TimeoutException {
+        BitSet excluded = new BitSet(WorldLinealDim);
+        // One fresh selector for the whole call: the undecided positions only
+        // shrink, so what the solver learns under it remains valid until the end
+        int selector = blocking ? solver.nextFreeVarId(true) : 0;
+
+        try {
+            while (!undecided.isEmpty()) {
+                int cell = undecided.nextSetBit(0);
+                Boolean sat;
+                if (blocking && undecided.nextSetBit(cell + 1) >= 0) {
+                    sat = someUndecidedIsPossible(undecided, selector);
+                    if (sat == null) {
+                        break;
+                    }
+                    if (!sat) {
+                        excluded.or(undecided);
+                        undecided.clear();
+                    }
+                } else {
+                    VecInt positiveVar = new VecInt();
+                    positiveVar.insertFirst(TreasureFutureOffset + cell);
+                    satCalls++;
+                    sat = ask(solver, positiveVar, deadline, config.solverTimeout);
+                    if (sat == null) {
+                        break;
+                    }
+                    if (!sat) {
+                        excluded.set(cell);
+                        undecided.clear(cell);
+                    }
+                }
+                if (sat) {
+                    for (int c = undecided.nextSetBit(0); c >= 0; c = undecided.nextSetBit(c + 1)) {
+                        if (solver.model(TreasureFutureOffset + c)) {
+                            undecided.clear(c);
+                        }
+                    }
+                }
+            }
+            if (blocking) {
+                // Disable the selector for ever
+                VecInt unit = new VecInt();
+                unit.push(-selector);
+                solver.addClause(unit);
+            }
+        } catch (ContradictionException ex) {
+            // Only clauses with the fresh selector are added, so this should not happen
+            throw new IllegalStateException(ex);
+        }
+        return excluded;
+    }
+
+    /**
+     * Ask the solver for a model where the Treasure is at one of the undecided
+     * positions. The clause that says so is guarded by the selector literal,
+     * and it is removed again once the question is answered.
+     *
+     * @param undecided positions (lineal index with offset 0) still undecided
+     * @param selector  variable that enables the clause when assumed true
+     * @return true if some undecided position is still possible, or null if
+     * the deadline was reached first
+     * @throws TimeoutException       needed for solver.isSatisfiable method, its thrown if
+     *                                exceeds the timeout.
+     * @throws ContradictionException if the guarded clause cannot be added
+     **/
+    private Boolean someUndecidedIsPossible(BitSet undecided, int selector) throws
+            TimeoutException, ContradictionException {
+        VecInt clause = new VecInt();
+        clause.push(-selector);
+        for (int c = undecided.nextSetBit(0); c >= 0; c = undecided.nextSetBit(c + 1)) {
+            clause.push(TreasureFutureOffset + c);
+        }
+        VecInt assumption = new VecInt();
+        assumption.push(selector);
+        IConstr guarded = solver.addClause(clause);
+        satCalls++;
+        Boolean sat = ask(solver, assumption, deadline, config.solverTimeout);
+        if (sat != null && sat && guarded != null) {
+            solver.removeConstr(guarded);
+        }
+        return sat;
+    }
+
+    /**
+     * This function builds the initial logical formula of the agent and stores it
+     * into the solver object. The clauses are taken from the GammaTemplate
+     * shared by the engines with the same dimension and encoding, and only
+     * generated here when the formula is too big to be kept as a template.
+     *
+     * @return returns the solver object where the formula has been stored
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     **/
+    public ISolver buildGamma() throws ContradictionException {
+
+        int totalNumVariables;
+
+        // You must set this variable to the total number of boolean variables
+        // in your formula Gamma
+        totalNumVariables = WorldLinealDim*4 + WorldLinealDim*2 + WorldLinealDim*2;
+        if (config.pirateLadder) {
+            totalNumVariables += WorldDim;
+        }
+        solver = newSolver(totalNumVariables);
+        replicas = null;
+        if (config.inference == InferenceMode.PARALLEL) {
+            replicas = new ISolver[Math.max(1, config.parallelism)];
+            replicas[0] = solver;
+            for (int r = 1; r < replicas.length; r++) {
+                replicas[r] = newSolver(totalNumVariables);
+            }
+        }
+        // This variable is used to generate, in a particular sequential order,
+        // the variable indentifiers of all the variables
+        actualLiteral = 1;
+        encodedDetector = new BitSet(WorldLinealDim * 4);
+        encodedPirate = new BitSet(WorldLinealDim * 2);
+
+        GammaTemplate template = GammaTemplate.forDim(WorldDim, config);
+        if (template == null) {
+            generateGamma();
+            return solver;
+        }
+        TreasurePastOffset = template.TreasurePastOffset;
+        TreasureFutureOffset = template.TreasureFutureOffset;
+        Detector0Offset = template.Detector0Offset;
+        Detector1Offset = template.Detector1Offset;
+        Detector2Offset = template.Detector2Offset;
+        Detector3Offset = template.Detector3Offset;
+        pirateAboveOffset = template.pirateAboveOffset;
+        pirateBelowOffset = template.pirateBelowOffset;
+        if (config.pirateLadder) {
+            // The ladder variables follow the pirate variables
+            ladderOffset = pirateBelowOffset + WorldLinealDim;
+        }
+        actualLiteral = template.numVariables + 1;
+        if (replicas == null) {
+            template.addTo(solver);
+        } else {
+            for (ISolver replica : replicas) {
+                template.addTo(replica);
+            }
+        }
+        return solver;
+    }
+
+    /**
+     * Generate all the clauses of Gamma, from the variable actualLiteral on
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     **/
+    private void generateGamma() throws ContradictionException {
+        // call here functions to add the differen sets of clauses
+        // of Gamma to the solver object
+
+        pastState(); //Treasure state t-1
+        futureState(); //Treasure state t+1
+        pastTofutureState(); //Treasure state t-1 to Treasure state t+1
+
+        detectorClauses(); //Implications from the metal sensor
+        pirateClauses();   //pirate implications
+
+        notInInitialPos(); //Implicates that the treasure is not in the initial position
+    }
+
+    /**
+     * Create an empty solver for a formula with numVariables variables, of
+     * the backend selected in config. An external solver that is not
+     * installed is replaced by the default one.
+     *
+     * @param numVariables number of boolean variables of the formula
+     * @return the new solver
+     **/
+    private ISolver newSolver(int numVariables) {
+        SolverBackend backend = config.solver;
+        if (backend == SolverBackend.EXTERNAL
+                && (config.externalSolver == null || !ExternalSolver.isInstalled(config.externalSolver))) {
+            config.events.log(EventLevel.ERROR, "MSG.   => External solver not installed: "
+                    + config.externalSolver + ", using the default solver");
+            backend = SolverBackend.DEFAULT;
+        }
+        ISolver newSolver = backend.newSolver(config);
+        newSolver.setTimeout(config.solverTimeout);
+        newSolver.newVar(numVariables);
+        return newSolver;
+    }
+
+    /**
+     * We need to add all the clauses for the possible implications a pirate may have.
+     *
+     *  @throws ContradictionException it must be included when adding clauses to a solver,
+     *      *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void pirateClauses() throws ContradictionException {
+        if (config.pirateLadder) {
+            ladderClauses();
+            return;
+        }
+        if (config.lazyGamma) {
+            // Only reserve the variables, see encodePirateImplications
+            pirateAboveOffset = actualLiteral;
+            pirateBelowOffset = actualLiteral + WorldLinealDim;
+            actualLiteral += WorldLinealDim * 2;
+            return;
+        }
+        for (int k = 0; k < 2; k++) {
+            for (int i = 1; i <= WorldDim; i++) {
+                for (int j = 1; j <= WorldDim; j++) {
+                    if (k == 0) {
+                        if (pirateAboveOffset == 0) {
+                            pirateAboveOffset = actualLiteral;
+                        }
+                        pirateAboveImpl(i, j);
+                    } else {
+                        if (pirateBelowOffset == 0) {
+                            pirateBelowOffset = actualLiteral;
+                        }
+                        pirateBelowImpl(i, j);
+                    }
+                    actualLiteral++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ladder (order) encoding of the pirate implications. The variable L_y
+     * says that the row of the Treasure is at most y, so L_y implies
+     * L_{y+1}, and the Treasure at (i,j) implies L_j and not L_{j-1}. A
+     * pirate that says up at row y implies not L_y, and otherwise L_y. This
+     * needs O(N^2) clauses instead of the O(N^4) of pirateAboveImpl() and
+     * pirateBelowImpl().
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void ladderClauses() throws ContradictionException {
+        pirateAboveOffset = actualLiteral;
+        pirateBelowOffset = actualLiteral + WorldLinealDim;
+        ladderOffset = actualLiteral + WorldLinealDim * 2;
+        actualLiteral += WorldLinealDim * 2 + WorldDim;
+        for (int y = 1; y < WorldDim; y++) {
+            VecInt order = new VecInt();
+            order.push(-(ladderOffset + y - 1));
+            order.push(ladderOffset + y);
+            addClause(order);
+        }
+        for (int i = 1; i <= WorldDim; i++) {
+            for (int j = 1; j <= WorldDim; j++) {
+                VecInt atMost = new VecInt();
+                atMost.push(-(coordToLineal(i, j, TreasureFutureOffset)));
+                atMost.push(ladderOffset + j - 1);
+                addClause(atMost);
+                if (j > 1) {
+                    VecInt above = new VecInt();
+                    above.push(-(coordToLineal(i, j, TreasureFutureOffset)));
+                    above.push(-(ladderOffset + j - 2));
+                    addClause(above);
+                }
+            }
+        }
+        if (!config.lazyGamma) {
+            for (int i = 1; i <= WorldDim; i++) {
+                for (int j = 1; j <= WorldDim; j++) {
+                    pirateLadderImpl(i, j, true);
+                    pirateLadderImpl(i, j, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the implication between the pirate variable at (x,y) for an answer
+     * and the ladder variable of row y
+     *
+     * @param x  pirate x coord
+     * @param y  pirate y coord
+     * @param up true for the variable of the pirate saying the treasure is up
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void pirateLadderImpl(int x, int y, boolean up) throws ContradictionException {
+        VecInt implication = new VecInt();
+        implication.push(-(coordToLineal(x, y, up ? pirateAboveOffset : pirateBelowOffset)));
+        implication.push(up ? -(ladderOffset + y - 1) : ladderOffset + y - 1);
+        addClause(implication);
+    }
+
+    /**
+     * We need to add all the clauses for the possible implications the detector may have
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void detectorClauses() throws ContradictionException {
+        if (config.lazyGamma) {
+            // Only reserve the variables, see encodeDetectorImplications
+            Detector0Offset = actualLiteral;
+            Detector1Offset = actualLiteral + WorldLinealDim;
+            Detector2Offset = actualLiteral + WorldLinealDim * 2;
+            Detector3Offset = actualLiteral + WorldLinealDim * 3;
+            actualLiteral += WorldLinealDim * 4;
+            return;
+        }
+        for (int k = 0; k < 4; k++) { //Possible values of our detector
+            for (int i = 1; i <= WorldDim; i++) {
+                for (int j = 1; j <= WorldDim; j++) {
+                        switch (k){
+                            case 0:
+                                if(Detector0Offset == 0){ Detector0Offset = actualLiteral;}
+                                detectorImplicationsCase0(i,j,Detector0Offset);
+                                break;
+                            case 1:
+                                if(Detector1Offset == 0){ Detector1Offset = actualLiteral;}
+                                detectorImplications(i,j,0,Detector1Offset);
+                                break;
+                            case 2:
+                                if(Detector2Offset == 0){ Detector2Offset = actualLiteral;}
+                                detectorImplications(i,j,1,Detector2Offset);
+                                break;
+                            case 3:
+                                if(Detector3Offset == 0){ Detector3Offset = actualLiteral;}
+                                detectorImplications(i,j,2,Detector3Offset);
+                                break;
+                    }
+                    actualLiteral++;
+                }
+            }
+        }
+    }
+
+    /**
+     * With a lazy Gamma, add the implications of the detector variable for the
+     * reading at (x,y), unless they were already added before.
+     * These are the same clauses that detectorClauses() adds for that variable.
+     *
+     * @param x detector x coord
+     * @param y detector y coord
+     * @param reading reading of the detector, between 0 and 3
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void encodeDetectorImplications(int x, int y, int reading) throws ContradictionException {
+        int index = reading * WorldLinealDim + coordToLineal(x, y, 0);
+        if (encodedDetector.get(index)) {
+            return;
+        }
+        encodedDetector.set(index);
+        switch (reading) {
+            case 0:
+                detectorImplicationsCase0(x, y, Detector0Offset);
+                break;
+            case 1:
+                detectorImplications(x, y, 0, Detector1Offset);
+                break;
+            case 2:
+                detectorImplications(x, y, 1, Detector2Offset);
+                break;
+            case 3:
+                detectorImplications(x, y, 2, Detector3Offset);
+                break;
+        }
+    }
+
+    /**
+     * With a lazy Gamma, add the implications of the pirate variable at (x,y)
+     * for the answer given by the pirate, unless they were already added before.
+     *
+     * @param x pirate x coord
+     * @param y pirate y coord
+     * @param up true if the pirate said the treasure is up
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void encodePirateImplications(int x, int y, boolean up) throws ContradictionException {
+        int index = (up ? 0 : WorldLinealDim) + coordToLineal(x, y, 0);
+        if (encodedPirate.get(index)) {
+            return;
+        }
+        encodedPirate.set(index);
+        if (config.pirateLadder) {
+            pirateLadderImpl(x, y, up);
+        } else if (up) {
+            pirateAboveImpl(x, y);
+        } else {
+            pirateBelowImpl(x, y);
+        }
+    }
+
+    /**Adds the implications between detector cases 1,2,3 and the locations where we are sure
+     * the treasure can not be.
+     *
+     * @param x detector x coord
+     * @param y detector y coord
+     * @param range it specifies the range  that the detector returns
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void detectorImplications(int x, int y, int range, int offset) throws ContradictionException {
+        for (int i = 1; i <= WorldDim; i++) {
+            for (int j = 1; j <= WorldDim; j++) {
+                if(distances.onRing(range, i-x, j-y)){}
+                else{
+                    VecInt implication = new VecInt();
+                    implication.insertFirst(-(coordToLineal(x,y,offset)));
+                    implication.insertFirst(-(coordToLineal(i,j,TreasureFutureOffset)));
+                    addClause(implication);
+                }
+            }
+        }
+    }
+    /**
+     *Case0 is a bit different from the other ranges implications because the others just look at a certain distance
+     * from the actual coord while case0 says; the treasure it's beyond Math.abs(i,j-x,y)>=3.
+     *
+     * @param x detector x coord
+     * @param y detector y coord
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void detectorImplicationsCase0(int x, int y, int offset) throws ContradictionException {
+        for (int i = 1; i <= WorldDim; i++) {
+            for (int j = 1; j <= WorldDim; j++) {
+                if(distances.onRing(3, i-x, j-y)){}
+                else{
+                    VecInt implication = new VecInt();
+                    implication.insertFirst(-(coordToLineal(x,y,offset)));
+                    implication.insertFirst(-(coordToLineal(i,j,TreasureFutureOffset)));
+                    addClause(implication);
+                }
+            }
+        }
+    }
+
+    /**Adds the implications between pirate saying treasure is above and locations
+     * were the trasure cannot be located.
+     *
+     * @param x detector x coord
+     * @param y detector y coord
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void pirateAboveImpl(int x, int y) throws ContradictionException {
+        for (int i = 1; i <= WorldDim; i++) {
+            for (int j = y; j >0; j--) {
+                VecInt implication = new VecInt();
+                implication.insertFirst(-(coordToLineal(x, y, pirateAboveOffset)));
+                implication.insertFirst(-(coordToLineal(i, j, TreasureFutureOffset)));
+                addClause(implication);
+            }
+        }
+    }
+
+    /**Adds the implications between detector cases 1,2,3 and the locations where we are sure
+     * the treasure can not be.
+     *
+     * @param x detector x coord
+     * @param y detector y coord
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *      * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void pirateBelowImpl(int x, int y) throws ContradictionException {
+        for (int i = 1; i <= WorldDim; i++) {
+            for (int j = y; j <= WorldDim; j++) {
+                VecInt implication = new VecInt();
+                implication.insertFirst(-(coordToLineal(x, y, pirateBelowOffset)));
+                implication.insertFirst(-(coordToLineal(i, j, TreasureFutureOffset)));
+                addClause(implication);
+            }
+        }
+    }
+
+    /**
+     *It add a clause to the solver that implies that the treasure must be
+     * in a position considering past information.
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     * it prevents from inserting contradictory clauses in the formula.
+     *
+     **/
+    private void pastState() throws ContradictionException {
+        // VecInt its the vector that use the solver for primitive integers.
+        VecInt pastInf = new VecInt();
+        TreasurePastOffset = actualLiteral;
+        for (int i = 0; i < WorldLinealDim; i++) {
+            pastInf.insertFirst(actualLiteral);
+            actualLiteral+=1;
+        }
+        addClause(pastInf);
+    }
+
+    /**
+     *It add a clause to the solver that implies that the treasure must be
+     * in a position considering future information.
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     * it prevents from inserting contradictory clauses in the formula.
+     *
+     **/
+    private void futureState() throws ContradictionException {
+        VecInt futureInf = new VecInt();
+        TreasureFutureOffset = actualLiteral;
+        for (int i = 0; i < WorldLinealDim; i++) {
+            futureInf.insertFirst(actualLiteral);
+            actualLiteral+=1;
+        }
+        addClause(futureInf);
+    }
+
+    /**Adds the clauses which say that if we have concluded that the Treasure was not in an specific
+     * location, we have to keep these conclusions and those will still be true in the future
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     * it prevents from inserting contradictory clauses in the formula.
+     */
+
+    private void pastTofutureState() throws  ContradictionException{
+        for (int i = 0; i < WorldLinealDim ; i++) {
+            VecInt clause = new VecInt();
+            clause.insertFirst(i+1);
+            clause.insertFirst(-(TreasureFutureOffset+i));
+            addClause(clause);
+        }
+    }
+
+    /**Adds the clauses which say that the Treasure can't be found at (1,1) position.
+     * We need to add one clause for the future and one for the past.
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     * it prevents from inserting contradictory clauses in the formula.
+     */
+    private void notInInitialPos() throws ContradictionException{
+        VecInt clause = new VecInt();
+        clause.insertFirst(-TreasureFutureOffset);
+        addClause(clause);
+        clause.clear();
+        clause.insertFirst(-TreasurePastOffset);
+        addClause(clause);
+    }
+
+    /**
+     * Convert a coordinate pair (x,y) to the integer value  t_[x,y]
+     * of variable that stores that information in the formula, using
+     * offset as the initial index for that subset of position variables
+     * (past and future position variables have different variables, so different
+     * offset values)
+     *
+     * @param x      x coordinate of the position variable to encode
+     * @param y      y coordinate of the position variable to encode
+     * @param offset initial value for the subset of position variables
+     *               (past or future subset)
+     * @return the integer indentifer of the variable  b_[x,y] in the formula
+     **/
+    public int coordToLineal(int x, int y, int offset) {
+        return ((x - 1) * WorldDim) + (y - 1) + offset;
+    }
+
+    /**
+     * Perform the inverse computation to the previous function.
+     * That is, from the identifier t_[x,y] to the coordinates  (x,y)
+     * that it represents
+     *
+     * @param lineal identifier of the variable
+     * @param offset offset associated with the subset of variables that
+     *               lineal belongs to
+     * @return array with x and y coordinates
+     **/
+    public int[] linealToCoord(int lineal, int offset) {
+        lineal = lineal - offset + 1;
+        int[] coords = new int[2];
+        coords[1] = ((lineal - 1) % WorldDim) + 1;
+        coords[0] = (lineal - 1) / WorldDim + 1;
+        return coords;
+    }
+
+
+}
@@ -0,0 +1,236 @@
+package apryraz.tworld;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One run of a TreasureFinder agent: a world (dimension, Treasure and
+ * pirates) and the steps the agent performs in it. The pirates are given
+ * either as a file or as a list of positions, or the world is an existing
+ * environment shared by several scenarios.
+ **/
+public class Scenario {
+    /**
+     * Name used to identify the scenario in the reports
+     **/
+    final String name;
+    final int dim, treasureX, treasureY;
+    final List<Position> steps;
+    final String piratesFile;
+    final List<Position> pirates;
+    /**
+     * Environment shared with other scenarios, or null if every run builds
+     * its own one
+     **/
+    final TreasureWorldEnv world;
+
+    /**
+     * Scenario with the pirates read from a file
+     **/
+    public Scenario(String name, int dim, int tx, int ty, List<Position> steps,
+                    String piratesFile) {
+        this(name, dim, tx, ty, steps, piratesFile, null, null);
+    }
+
+    /**
+     * Scenario with the pirates given as positions
+     **/
+    public Scenario(String name, int dim, int tx, int ty, List<Position> steps,
+                    List<Position> pirates) {
+        this(name, dim, tx, ty, steps, null, pirates, null);
+    }
+
+    private Scenario(String name, int dim, int tx, int ty, List<Position> steps,
+                     String piratesFile, List<Position> pirates, TreasureWorldEnv world) {
+        this.name = name;
+        this.dim = dim;
+        treasureX = tx;
+        treasureY = ty;
+        this.steps = Collections.unmodifiableList(new ArrayList<Position>(steps));
+        this.piratesFile = piratesFile;
+        this.pirates = pirates == null ? null
+                : Collections.unmodifiableList(new ArrayList<Position>(pirates));
+        this.world = world;
+    }
+
+    /**
+     * Scenario that runs on an existing environment, which is shared by all
+     * the scenarios built on it
+     *
+     * @param name  name of the scenario
+     * @param world the shared environment
+     * @param steps the steps of the agent
+     * @return the new scenario
+     **/
+    public static Scenario onWorld(String name, TreasureWorldEnv world, List<Position> steps) {
+        return new Scenario(name, world.WorldDim, world.TreasureX, world.TreasureY, steps,
+                null, null, world);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    public List<Position> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Build the environment of this scenario, or return the shared one
+     *
+     * @param events where a new environment reports what it does
+     * @return the environment object
+     **/
+    public TreasureWorldEnv newEnvironment(EventSink events) {
+        if (world != null) {
+            return world;
+        }
+        if (piratesFile != null) {
+            return new TreasureWorldEnv(dim, treasureX, treasureY, piratesFile, events);
+        }
+        return new TreasureWorldEnv(dim, treasureX, treasureY, pirates, events);
+    }
+
+    /**
+     * Read a manifest of scenarios. Every line has the same six arguments
+     * as TreasureWorld.main:
+     *   dim treasureX treasureY numSteps stepsFile piratesFile
+     * Empty lines and lines starting with # are skipped. Relative file names
+     * are used as they are, like in TreasureWorld.main.
+     *
+     * @param manifest name of the manifest file
+     * @return the scenarios, in the order of the file
+     **/
+    public static List<Scenario> readManifest(String manifest) throws IOException {
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        BufferedReader br = new BufferedReader(new FileReader(manifest));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] args = line.split("\\s+");
+                if (args.length < 6) {
+                    throw new IOException(manifest + ":" + lineNumber
+                            + ": expected dim treasureX treasureY numSteps stepsFile piratesFile");
+                }
+                int numSteps = Integer.parseInt(args[3]);
+                scenarios.add(new Scenario(manifest + ":" + lineNumber,
+                        Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                        Integer.parseInt(args[2]), readSteps(args[4], numSteps), args[5]));
+            }
+        } finally {
+            br.close();
+        }
+        return scenarios;
+    }
+
+    /**
+     * Read the first numSteps steps of a steps file, with the format of
+     * TreasureFinder.loadListOfSteps()
+     **/
+    static List<Position> readSteps(String stepsFile, int numSteps) throws IOException {
+        List<Position> list = new ArrayList<Position>(numSteps);
+        FileStepSource steps = new FileStepSource(stepsFile);
+        try {
+            while (list.size() < numSteps) {
+                Position step = steps.nextStep();
+                if (step == null) {
+                    throw new IOException(stepsFile + ": only " + list.size() + " steps");
+                }
+                list.add(step);
+            }
+        } finally {
+            steps.close();
+        }
+        return list;
+    }
+
+    /**
+     * Generate random scenarios. The Treasure is never at 1,1, since the
+     * agent knows it is not there. The agent walks from 1,1 moving every
+     * step to a random neighbour cell inside the world.
+     *
+     * @param seed     seed of the generator, so the same set can be repeated
+     * @param count    number of scenarios
+     * @param dim      dimension of the worlds
+     * @param numSteps number of steps of every scenario
+     * @param numPirates number of pirates of every world, at random cells
+     * @return the scenarios
+     **/
+    public static List<Scenario> generate(long seed, int count, int dim, int numSteps,
+                                          int numPirates) {
+        if (dim < 2) {
+            throw new IllegalArgumentException("dimension must be at least 2: " + dim);
+        }
+        Random random = new Random(seed);
+        List<Scenario> scenarios = new ArrayList<Scenario>(count);
+        for (int n = 0; n < count; n++) {
+            int tx, ty;
+            do {
+                tx = 1 + random.nextInt(dim);
+                ty = 1 + random.nextInt(dim);
+            } while (tx == 1 && ty == 1);
+            List<Position> pirates = new ArrayList<Position>(numPirates);
+            for (int p = 0; p < numPirates; p++) {
+                pirates.add(new Position(1 + random.nextInt(dim), 1 + random.nextInt(dim)));
+            }
+            scenarios.add(new Scenario("generated-" + seed + "-" + n, dim, tx, ty,
+                    randomWalk(random, dim, numSteps), pirates));
+        }
+        return scenarios;
+    }
+
+    /**
+     * Generate random walks of agents on a shared environment, like the
+     * ones of generate()
+     *
+     * @param world    the shared environment
+     * @param seed     seed of the generator
+     * @param count    number of scenarios
+     * @param numSteps number of steps of every scenario
+     * @return the scenarios
+     **/
+    public static List<Scenario> generateOnWorld(TreasureWorldEnv world, long seed, int count,
+                                                 int numSteps) {
+        Random random = new Random(seed);
+        List<Scenario> scenarios = new ArrayList<Scenario>(count);
+        for (int n = 0; n < count; n++) {
+            scenarios.add(onWorld("agent-" + seed + "-" + n, world,
+                    randomWalk(random, world.WorldDim, numSteps)));
+        }
+        return scenarios;
+    }
+
+    /**
+     * Walk from 1,1 moving every step to a random neighbour cell of the world
+     **/
+    private static List<Position> randomWalk(Random random, int dim, int numSteps) {
+        List<Position> steps = new ArrayList<Position>(numSteps);
+        int x = 1, y = 1;
+        for (int s = 0; s < numSteps; s++) {
+            int nx, ny;
+            do {
+                nx = x + random.nextInt(3) - 1;
+                ny = y + random.nextInt(3) - 1;
+            } while (nx < 1 || nx > dim || ny < 1 || ny > dim || (nx == x && ny == y));
+            x = nx;
+            y = ny;
+            steps.add(new Position(x, y));
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,232 @@
+package apryraz.tworld;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Regression scenarios stored in files: the steps file, the pirates file
+ * and the expected states file (see ExpectedStatesWriter) of every scenario.
+ * The expected states are computed with the bitboard engine, which is the
+ * oracle of the other engines. The files of large worlds are verified
+ * while the agent runs, one step at a time, so the memory needed does not
+ * depend on the number of steps.
+ *
+ * A manifest of these scenarios has the same lines as the ones read by
+ * Scenario.readManifest(), with the expected states file at the end:
+ *   dim treasureX treasureY numSteps stepsFile piratesFile statesFile
+ **/
+public final class ScenarioFiles {
+    /**
+     * Number of steps or pirates written in every line of the files
+     **/
+    static final int ITEMS_PER_LINE = 32;
+
+    private ScenarioFiles() {
+    }
+
+    /**
+     * Write the files of a scenario, with its expected states computed by
+     * a bitboard agent
+     *
+     * @param scenario a scenario with its pirates given as positions
+     * @param dir      directory of the files
+     * @param baseName name of the files, without their extensions
+     *                 .steps, .pirates and .states
+     * @return the line of the scenario for a manifest
+     **/
+    public static String write(Scenario scenario, File dir, String baseName) throws
+            IOException, ContradictionException, TimeoutException {
+        if (scenario.pirates == null) {
+            throw new IllegalArgumentException(scenario.name + ": pirates are not given as positions");
+        }
+        dir.mkdirs();
+        File stepsFile = new File(dir, baseName + ".steps");
+        File piratesFile = new File(dir, baseName + ".pirates");
+        File statesFile = new File(dir, baseName + ".states");
+        writePositions(scenario.steps, stepsFile);
+        writePositions(scenario.pirates, piratesFile);
+
+        TreasureFinder oracle = new TreasureFinder(scenario.dim, new TFConfig()
+                .setEngine(EngineType.BITBOARD).setEventSink(SilentEventSink.INSTANCE));
+        oracle.setEnvironment(scenario.newEnvironment(SilentEventSink.INSTANCE));
+        oracle.setListOfSteps(scenario.steps);
+        ExpectedStatesWriter states = new ExpectedStatesWriter(statesFile, scenario.dim);
+        try {
+            for (int step = 0; step < scenario.steps.size(); step++) {
+                oracle.runNextStep();
+                states.writeStep(oracle.getState());
+            }
+        } finally {
+            states.close();
+        }
+        return scenario.dim + " " + scenario.treasureX + " " + scenario.treasureY + " "
+                + scenario.steps.size() + " " + stepsFile.getPath() + " "
+                + piratesFile.getPath() + " " + statesFile.getPath();
+    }
+
+    /**
+     * Generate random scenarios with Scenario.generate(), write their files
+     * and a manifest.txt with them in dir
+     *
+     * @return the manifest file
+     **/
+    public static File generate(File dir, long seed, int count, int dim, int numSteps,
+                                int numPirates) throws
+            IOException, ContradictionException, TimeoutException {
+        List<Scenario> scenarios = Scenario.generate(seed, count, dim, numSteps, numPirates);
+        dir.mkdirs();
+        File manifest = new File(dir, "manifest.txt");
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(manifest)));
+        try {
+            out.println("# dim treasureX treasureY numSteps stepsFile piratesFile statesFile");
+            for (int n = 0; n < scenarios.size(); n++) {
+                out.println(write(scenarios.get(n), dir, "world-" + dim + "-" + seed + "-" + n));
+            }
+        } finally {
+            out.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * Run an agent on a scenario given by its files, and compare its state
+     * with the expected one after every step. The steps and the expected
+     * states are read while the agent runs.
+     *
+     * @param name        name of the scenario in the errors
+     * @param config      options of the agent
+     * @return the number of steps verified
+     * @throws StateMismatchException at the first step whose state differs
+     **/
+    public static int verify(String name, int dim, int tx, int ty, String stepsFile,
+                             String piratesFile, String statesFile, TFConfig config) throws
+            IOException, ContradictionException, TimeoutException, StateMismatchException {
+        TreasureFinder agent = new TreasureFinder(dim, config);
+        agent.setEnvironment(new TreasureWorldEnv(dim, tx, ty, piratesFile, config.getEventSink()));
+        ExpectedStatesReader expected = new ExpectedStatesReader(new File(statesFile));
+        try {
+            if (expected.dim != dim) {
+                throw new IOException(statesFile + ": states of dimension " + expected.dim);
+            }
+            agent.setStepSource(new FileStepSource(stepsFile), Integer.MAX_VALUE);
+            while (expected.nextStep()) {
+                agent.runNextStep();
+                int c = expected.firstDifference(agent.getState());
+                if (c >= 0) {
+                    int x = c / dim + 1, y = c % dim + 1;
+                    throw new StateMismatchException(name, expected.getStep(), x, y,
+                            expected.isCandidate(x, y));
+                }
+            }
+            return expected.getStep();
+        } finally {
+            agent.closeListOfSteps();
+            expected.close();
+        }
+    }
+
+    /**
+     * Verify every scenario of a manifest, stopping at the first mismatch
+     *
+     * @param manifest name of the manifest file
+     * @param config   options of the agents
+     * @param out      where a line is written for every scenario verified
+     * @return the number of scenarios verified
+     **/
+    public static int verifyManifest(String manifest, TFConfig config, PrintWriter out) throws
+            IOException, ContradictionException, TimeoutException, StateMismatchException {
+        BufferedReader br = new BufferedReader(new FileReader(manifest));
+        int verified = 0;
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] args = line.split("\\s+");
+                if (args.length < 7) {
+                    throw new IOException(manifest + ":" + lineNumber
+                            + ": expected dim treasureX treasureY numSteps stepsFile piratesFile statesFile");
+                }
+                long start = System.nanoTime();
+                int steps = verify(manifest + ":" + lineNumber, Integer.parseInt(args[0]),
+                        Integer.parseInt(args[1]), Integer.parseInt(args[2]), args[4], args[5],
+                        args[6], config);
+                out.printf("OK %s:%d %d steps in %.3f s%n", manifest, lineNumber, steps,
+                        (System.nanoTime() - start) / 1e9);
+                out.flush();
+                verified++;
+            }
+        } finally {
+            br.close();
+        }
+        return verified;
+    }
+
+    private static void writePositions(Collection<Position> positions, File file) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(file), 1 << 16);
+        try {
+            int n = 0;
+            for (Position p : positions) {
+                if (n > 0) {
+                    out.write(n % ITEMS_PER_LINE == 0 ? '\n' : ' ');
+                }
+                out.write(p.x + "," + p.y);
+                n++;
+            }
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Generate or verify regression scenarios:
+     *   generate dir seed count dim numSteps numPirates
+     *   verify manifest
+     * The options of the agents that are verified are read from the system
+     * properties, like in TreasureWorld.main, but the events are discarded
+     * unless tworld.events is given. The exit status is 1 on a mismatch.
+     **/
+    public static void main(String[] args) throws Exception {
+        if (args.length == 7 && args[0].equals("generate")) {
+            File manifest = generate(new File(args[1]), Long.parseLong(args[2]),
+                    Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+                    Integer.parseInt(args[5]), Integer.parseInt(args[6]));
+            System.out.println("Manifest written to " + manifest.getPath());
+        } else if (args.length == 2 && args[0].equals("verify")) {
+            TFConfig config = TFConfig.fromSystemProperties();
+            if (System.getProperty("tworld.events") == null) {
+                config.setEventSink(SilentEventSink.INSTANCE);
+            }
+            PrintWriter out = new PrintWriter(System.out);
+            try {
+                verifyManifest(args[1], config, out);
+            } catch (StateMismatchException ex) {
+                out.println("MISMATCH " + ex.getMessage());
+                out.flush();
+                System.exit(1);
+            } finally {
+                out.flush();
+                config.getEventSink().close();
+            }
+        } else {
+            System.out.println("Usage: ScenarioFiles generate <dir> <seed> <count> <dim> <numSteps> <numPirates>");
+            System.out.println("       ScenarioFiles verify <manifest>");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package apryraz.tworld;
+
+/**
+ * What a batch run obtained for one scenario: the final knowledge of the
+ * agent, the duration of every step, and the error that stopped it, if any
+ **/
+public class ScenarioResult {
+    final Scenario scenario;
+    /**
+     * Final state of the agent, or the last one reached before an error
+     **/
+    final TFState state;
+    /**
+     * Durations of the steps performed, in nanoseconds
+     **/
+    final LatencyHistogram stepLatency;
+    final int stepsPerformed;
+    final long elapsedNanos;
+    /**
+     * Exception that stopped the scenario, or null if it ran all its steps
+     **/
+    final Exception error;
+
+    ScenarioResult(Scenario scenario, TFState state, LatencyHistogram stepLatency,
+                   int stepsPerformed, long elapsedNanos, Exception error) {
+        this.scenario = scenario;
+        this.state = state;
+        this.stepLatency = stepLatency;
+        this.stepsPerformed = stepsPerformed;
+        this.elapsedNanos = elapsedNanos;
+        this.error = error;
+    }
+
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    public TFState getState() {
+        return state;
+    }
+
+    public LatencyHistogram getStepLatency() {
+        return stepLatency;
+    }
+
+    public int getStepsPerformed() {
+        return stepsPerformed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+}
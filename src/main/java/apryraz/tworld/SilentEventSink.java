@@ -0,0 +1,24 @@
+package apryraz.tworld;
+
+/**
+ * Event sink that discards all the events
+ **/
+public final class SilentEventSink implements EventSink {
+    public static final SilentEventSink INSTANCE = new SilentEventSink();
+
+    private SilentEventSink() {
+    }
+
+    public boolean isEnabled(EventLevel level) {
+        return false;
+    }
+
+    public void log(EventLevel level, String text) {
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,61 @@
+package apryraz.tworld;
+
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ISolver;
+
+/**
+ * The SAT solvers that a SatInferenceEngine can use. They answer the same
+ * questions, but behave differently on the many small incremental queries
+ * of the inference, so the fastest one depends on the size of the world.
+ **/
+public enum SolverBackend {
+    /**
+     * SolverFactory.newDefault(): MiniSAT style solver with the best
+     * heuristics of Sat4j
+     **/
+    DEFAULT,
+    /**
+     * SolverFactory.newLight(): the default solver without the costly
+     * reason simplification
+     **/
+    LIGHT,
+    /**
+     * SolverFactory.newGlucose(): Glucose style deletion of learned clauses
+     **/
+    GLUCOSE,
+    /**
+     * Portfolio of the DEFAULT, LIGHT and GLUCOSE solvers, which run on
+     * their own threads, taking the first answer, see PortfolioSolver
+     **/
+    PORTFOLIO,
+    /**
+     * An external solver binary, given by TFConfig.setExternalSolver(),
+     * driven through DIMACS files, see ExternalSolver
+     **/
+    EXTERNAL;
+
+    /**
+     * Create an empty solver of this backend
+     *
+     * @param config options of the agent, with the command of an external solver
+     * @return the new solver
+     **/
+    ISolver newSolver(TFConfig config) {
+        switch (this) {
+            case LIGHT:
+                return SolverFactory.newLight();
+            case GLUCOSE:
+                return SolverFactory.newGlucose();
+            case PORTFOLIO:
+                return new PortfolioSolver(SolverFactory.newDefault(), SolverFactory.newLight(),
+                        SolverFactory.newGlucose());
+            case EXTERNAL:
+                if (config.externalSolver == null) {
+                    throw new IllegalStateException("no external solver command");
+                }
+                return new ExternalSolver(config.externalSolver.trim().split("\\s+"));
+            default:
+                return SolverFactory.newDefault();
+        }
+    }
+}
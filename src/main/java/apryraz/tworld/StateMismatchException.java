@@ -0,0 +1,42 @@
+package apryraz.tworld;
+
+/**
+ * The state reached by an agent differs from the expected one
+ **/
+public class StateMismatchException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    final int step, x, y;
+    /**
+     * Whether the Treasure can be at (x,y) in the expected state
+     **/
+    final boolean expectedCandidate;
+
+    StateMismatchException(String scenario, int step, int x, int y, boolean expectedCandidate) {
+        super(scenario + ": after step " + step + " position (" + x + "," + y + ") should be "
+                + (expectedCandidate ? "?" : "X") + " but is " + (expectedCandidate ? "X" : "?"));
+        this.step = step;
+        this.x = x;
+        this.y = y;
+        this.expectedCandidate = expectedCandidate;
+    }
+
+    /**
+     * @return the first step, counting from 1, whose state differs
+     **/
+    public int getStep() {
+        return step;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public boolean isExpectedCandidate() {
+        return expectedCandidate;
+    }
+}
@@ -0,0 +1,131 @@
+package apryraz.tworld;
+
+/**
+ * What one step of a TreasureFinder agent cost: the time spent in each
+ * phase of the step, the calls to the SAT solver and the work the solver
+ * did for them, and the size of the formula and of the set of candidates
+ * after the step. The same class is used for the totals of all the steps.
+ * Objects handed out by the agent are not modified afterwards.
+ **/
+public final class StepMetrics {
+    /**
+     * Phases of a step: adding the conclusions of the previous step as past
+     * clauses, the messages to move and sense, adding the evidence of the
+     * answers, and the inference questions
+     **/
+    public static final int PAST_CLAUSES = 0, MOVE_AND_SENSE = 1, EVIDENCE = 2, INFERENCE = 3;
+    public static final int NUM_PHASES = 4;
+
+    /**
+     * Number of steps included, 1 for the metrics of a single step
+     **/
+    long steps;
+    final long[] phaseNanos = new long[NUM_PHASES];
+    long satCalls, conflicts, propagations, learnedClauses;
+    /**
+     * Constraints in the solver and candidate positions after the last step
+     **/
+    int numConstraints, numCandidates;
+
+    StepMetrics() {
+    }
+
+    StepMetrics(StepMetrics other) {
+        steps = other.steps;
+        System.arraycopy(other.phaseNanos, 0, phaseNanos, 0, NUM_PHASES);
+        satCalls = other.satCalls;
+        conflicts = other.conflicts;
+        propagations = other.propagations;
+        learnedClauses = other.learnedClauses;
+        numConstraints = other.numConstraints;
+        numCandidates = other.numCandidates;
+    }
+
+    /**
+     * Set the solver counters of this object to the difference between two
+     * readings of the cumulative counters of an engine
+     **/
+    void setCounters(StepMetrics after, StepMetrics before) {
+        satCalls = after.satCalls - before.satCalls;
+        conflicts = after.conflicts - before.conflicts;
+        propagations = after.propagations - before.propagations;
+        learnedClauses = after.learnedClauses - before.learnedClauses;
+        numConstraints = after.numConstraints;
+    }
+
+    /**
+     * @return a copy of this object with the metrics of step added
+     **/
+    StepMetrics plus(StepMetrics step) {
+        StepMetrics sum = new StepMetrics(this);
+        sum.steps += step.steps;
+        for (int p = 0; p < NUM_PHASES; p++) {
+            sum.phaseNanos[p] += step.phaseNanos[p];
+        }
+        sum.satCalls += step.satCalls;
+        sum.conflicts += step.conflicts;
+        sum.propagations += step.propagations;
+        sum.learnedClauses += step.learnedClauses;
+        sum.numConstraints = step.numConstraints;
+        sum.numCandidates = step.numCandidates;
+        return sum;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @param phase one of PAST_CLAUSES, MOVE_AND_SENSE, EVIDENCE or INFERENCE
+     * @return the time spent in the phase, in nanoseconds
+     **/
+    public long getPhaseNanos(int phase) {
+        return phaseNanos[phase];
+    }
+
+    /**
+     * @return the time spent in all the phases, in nanoseconds
+     **/
+    public long getTotalNanos() {
+        long total = 0;
+        for (int p = 0; p < NUM_PHASES; p++) {
+            total += phaseNanos[p];
+        }
+        return total;
+    }
+
+    public long getSatCalls() {
+        return satCalls;
+    }
+
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    public long getPropagations() {
+        return propagations;
+    }
+
+    public long getLearnedClauses() {
+        return learnedClauses;
+    }
+
+    public int getNumConstraints() {
+        return numConstraints;
+    }
+
+    public int getNumCandidates() {
+        return numCandidates;
+    }
+
+    @Override
+    public String toString() {
+        return "steps " + steps + " pastClauses " + phaseNanos[PAST_CLAUSES] / 1000
+                + "us moveAndSense " + phaseNanos[MOVE_AND_SENSE] / 1000
+                + "us evidence " + phaseNanos[EVIDENCE] / 1000
+                + "us inference " + phaseNanos[INFERENCE] / 1000
+                + "us satCalls " + satCalls + " conflicts " + conflicts
+                + " propagations " + propagations + " learnedClauses " + learnedClauses
+                + " constraints " + numConstraints + " candidates " + numCandidates;
+    }
+}
@@ -0,0 +1,153 @@
+package apryraz.tworld;
+
+import java.util.BitSet;
+
+/**
+ * Chooses the next movement of an agent among the cells next to it, as the
+ * one where the sensors are expected to exclude more candidate positions.
+ *
+ * The Treasure is assumed to be equally likely at any candidate position.
+ * For a cell, every detector reading keeps the candidates on its ring (see
+ * DistanceTable.allowedBy), so the expected number of exclusions is
+ *   sum over readings r of  |C_r| / |C| * (|C| - |C_r|)
+ * where C is the set of candidates and C_r the ones kept by r. When there
+ * may be a pirate at the cell, every C_r is further split by its answer,
+ * rows above y or not. The rings only span the 5x5 square around the cell,
+ * so a cell is scored by looking at 25 positions and the candidates of
+ * every row, without asking the solver.
+ **/
+public class StepPlanner {
+    /**
+     * Dimension of the world
+     **/
+    final int WorldDim;
+    /**
+     * Cells already visited by the agent, indexed by (x-1) * WorldDim + (y-1).
+     * A pirate there has already answered, so it cannot exclude anything else.
+     **/
+    final BitSet visited;
+
+    public StepPlanner(int dim) {
+        WorldDim = dim;
+        visited = new BitSet(dim * dim);
+    }
+
+    /**
+     * Record that the agent has visited (x,y)
+     **/
+    public void visit(int x, int y) {
+        if (x >= 1 && x <= WorldDim && y >= 1 && y <= WorldDim) {
+            visited.set((x - 1) * WorldDim + (y - 1));
+        }
+    }
+
+    /**
+     * Expected number of candidates excluded by sensing at (x,y)
+     *
+     * @param state             current knowledge of the agent
+     * @param x                 x coordinate of the cell
+     * @param y                 y coordinate of the cell
+     * @param pirateProbability probability of finding a pirate at (x,y)
+     * @return the expected number of exclusions
+     **/
+    public double expectedExclusions(TFState state, int x, int y, double pirateProbability) {
+        return score(state, rowCounts(state), x, y, pirateProbability);
+    }
+
+    /**
+     * Choose the cell next to (x,y) with the largest expected number of
+     * exclusions. Ties, and the case where no neighbour can exclude
+     * anything, are decided by the distance to the closest candidate, so the
+     * agent never wanders away from the Treasure.
+     *
+     * @param state             current knowledge of the agent
+     * @param x                 x coordinate of the agent
+     * @param y                 y coordinate of the agent
+     * @param pirateProbability probability of finding a pirate at a cell not
+     *                          visited yet
+     * @return the position to move to
+     **/
+    public Position nextStep(TFState state, int x, int y, double pirateProbability) {
+        int[] rows = rowCounts(state);
+        Position best = null;
+        double bestScore = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int nx = x - 1; nx <= x + 1; nx++) {
+            for (int ny = y - 1; ny <= y + 1; ny++) {
+                if ((nx == x && ny == y) || nx < 1 || nx > WorldDim || ny < 1 || ny > WorldDim) {
+                    continue;
+                }
+                double score = score(state, rows, nx, ny,
+                        visited.get((nx - 1) * WorldDim + (ny - 1)) ? 0 : pirateProbability);
+                if (score < bestScore - 1e-9) {
+                    continue;
+                }
+                int distance = distanceToCandidates(state, nx, ny);
+                if (score > bestScore + 1e-9 || distance < bestDistance) {
+                    best = new Position(nx, ny);
+                    bestScore = score;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of candidates of every row y, at index y
+     **/
+    private int[] rowCounts(TFState state) {
+        int[] rows = new int[WorldDim + 1];
+        for (int c = state.excluded.nextClearBit(0); c < WorldDim * WorldDim;
+             c = state.excluded.nextClearBit(c + 1)) {
+            rows[c % WorldDim + 1]++;
+        }
+        return rows;
+    }
+
+    private double score(TFState state, int[] rows, int x, int y, double pirateProbability) {
+        int total = state.getNumCandidates();
+        if (total == 0) {
+            return 0;
+        }
+        // kept[r][0] candidates kept by reading r in rows <= y, kept[r][1] above y
+        int[][] kept = new int[4][2];
+        for (int i = Math.max(1, x - 2); i <= Math.min(WorldDim, x + 2); i++) {
+            for (int j = Math.max(1, y - 2); j <= Math.min(WorldDim, y + 2); j++) {
+                if (state.isCandidate(i, j)) {
+                    int ring = Math.max(Math.abs(i - x), Math.abs(j - y));
+                    kept[ring + 1][j > y ? 1 : 0]++;
+                }
+            }
+        }
+        int above = 0;
+        for (int j = y + 1; j <= WorldDim; j++) {
+            above += rows[j];
+        }
+        // Reading 0 keeps everything outside the 5x5 square
+        kept[0][1] = above - kept[1][1] - kept[2][1] - kept[3][1];
+        kept[0][0] = total - above - kept[1][0] - kept[2][0] - kept[3][0];
+
+        double detector = 0, withPirate = 0;
+        for (int r = 0; r < 4; r++) {
+            int both = kept[r][0] + kept[r][1];
+            detector += (double) both * (total - both);
+            withPirate += (double) kept[r][0] * (total - kept[r][0])
+                    + (double) kept[r][1] * (total - kept[r][1]);
+        }
+        return ((1 - pirateProbability) * detector + pirateProbability * withPirate) / total;
+    }
+
+    /**
+     * @return the chessboard distance from (x,y) to the closest candidate
+     **/
+    private int distanceToCandidates(TFState state, int x, int y) {
+        int best = Integer.MAX_VALUE;
+        for (int c = state.excluded.nextClearBit(0); c < WorldDim * WorldDim;
+             c = state.excluded.nextClearBit(c + 1)) {
+            int i = c / WorldDim + 1, j = c % WorldDim + 1;
+            best = Math.min(best, Math.max(Math.abs(i - x), Math.abs(j - y)));
+        }
+        return best;
+    }
+}
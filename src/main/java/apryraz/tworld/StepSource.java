@@ -0,0 +1,23 @@
+package apryraz.tworld;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequence of steps performed by a TreasureFinder agent. The steps are
+ * produced one at a time, when the agent needs them, so a sequence can be
+ * longer than what fits in memory.
+ **/
+public interface StepSource extends Closeable {
+
+    /**
+     * @return the next position to move to, or null when there are no more steps
+     * @throws IOException if the steps can not be read or are malformed
+     **/
+    Position nextStep() throws IOException;
+
+    /**
+     * Release the resources of the source. Closing it twice has no effect.
+     **/
+    void close() throws IOException;
+}
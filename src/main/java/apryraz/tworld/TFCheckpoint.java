@@ -0,0 +1,165 @@
+package apryraz.tworld;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+
+/**
+ * Compact binary snapshot of what a TreasureFinder agent knows, from which
+ * another agent continues without performing the steps again: the
+ * position of the agent, the index of its next step, the excluded
+ * positions and the log of the evidence it obtained. See
+ * TreasureFinder.checkpoint() and TreasureFinder.restore().
+ *
+ * The snapshot starts with the ints MAGIC, VERSION and the dimension,
+ * followed by variable length integers: agentX, agentY, idNextStep,
+ * movesMade, piratesMet, the excluded positions as a count and the gaps
+ * between their lineal indexes (like ExpectedStatesWriter), and the
+ * evidence as a count and one code per evidence.
+ **/
+public final class TFCheckpoint {
+    static final int MAGIC = 0x5457434B; // "TWCK"
+    static final int VERSION = 1;
+    /**
+     * Kinds of evidence: the readings 0, 1, 2 and 3 of the detector, and
+     * the answers of the pirates. The code of an evidence found at the
+     * lineal position c is c * NUM_KINDS + kind.
+     **/
+    static final int PIRATE_UP = 4, PIRATE_DOWN = 5, NUM_KINDS = 6;
+
+    int dim;
+    int agentX, agentY, idNextStep, movesMade, piratesMet;
+    /**
+     * Excluded positions, indexed by (x-1) * dim + (y-1)
+     **/
+    BitSet excluded;
+    /**
+     * Codes of the evidence, in the order it was obtained
+     **/
+    int[] evidence;
+    int numEvidence;
+
+    TFCheckpoint() {
+    }
+
+    /**
+     * @param x    x coordinate where the evidence was obtained
+     * @param y    y coordinate where the evidence was obtained
+     * @param kind reading of the detector, PIRATE_UP or PIRATE_DOWN
+     * @param dim  dimension of the world
+     * @return the code of the evidence
+     **/
+    static int evidenceCode(int x, int y, int kind, int dim) {
+        return ((x - 1) * dim + (y - 1)) * NUM_KINDS + kind;
+    }
+
+    /**
+     * Write the snapshot. The stream is not closed.
+     *
+     * @param stream where the snapshot is written
+     * @throws IOException if the snapshot can not be written
+     **/
+    void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dim);
+        writeVarInt(out, agentX);
+        writeVarInt(out, agentY);
+        writeVarInt(out, idNextStep);
+        writeVarInt(out, movesMade);
+        writeVarInt(out, piratesMet);
+        writeVarInt(out, excluded.cardinality());
+        int previous = -1;
+        for (int c = excluded.nextSetBit(0); c >= 0; c = excluded.nextSetBit(c + 1)) {
+            writeVarInt(out, c - previous);
+            previous = c;
+        }
+        writeVarInt(out, numEvidence);
+        for (int e = 0; e < numEvidence; e++) {
+            writeVarInt(out, evidence[e]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Read a snapshot written by write()
+     *
+     * @param stream where the snapshot is read from. It is not closed.
+     * @return the snapshot
+     * @throws IOException if the snapshot can not be read, or it is not a
+     *                     valid snapshot
+     **/
+    static TFCheckpoint read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a TreasureFinder checkpoint");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported checkpoint version " + version);
+        }
+        TFCheckpoint checkpoint = new TFCheckpoint();
+        int dim = in.readInt();
+        if (dim < 1 || dim > 46340) {
+            throw new IOException("checkpoint of dimension " + dim);
+        }
+        checkpoint.dim = dim;
+        checkpoint.agentX = readVarInt(in);
+        checkpoint.agentY = readVarInt(in);
+        checkpoint.idNextStep = readVarInt(in);
+        checkpoint.movesMade = readVarInt(in);
+        checkpoint.piratesMet = readVarInt(in);
+        int count = readVarInt(in);
+        checkpoint.excluded = new BitSet(dim * dim);
+        int c = -1;
+        for (int k = 0; k < count; k++) {
+            c += readVarInt(in);
+            if (c < 0 || c >= dim * dim) {
+                throw new IOException("excluded position out of the world in checkpoint");
+            }
+            checkpoint.excluded.set(c);
+        }
+        int numEvidence = readVarInt(in);
+        checkpoint.evidence = new int[Math.max(16, numEvidence)];
+        for (int e = 0; e < numEvidence; e++) {
+            int code = readVarInt(in);
+            if (code / NUM_KINDS >= dim * dim) {
+                throw new IOException("evidence out of the world in checkpoint");
+            }
+            checkpoint.evidence[e] = code;
+        }
+        checkpoint.numEvidence = numEvidence;
+        return checkpoint;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("truncated checkpoint");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("malformed number in checkpoint");
+                }
+                return value;
+            }
+        }
+        throw new IOException("malformed number in checkpoint");
+    }
+}
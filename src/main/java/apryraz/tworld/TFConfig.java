@@ -0,0 +1,384 @@
+package apryraz.tworld;
+
+import java.io.File;
+
+/**
+ * Options that select how a TreasureFinder agent encodes and reasons with
+ * its formula. The default values reproduce the original behaviour of the
+ * agent, so new TFConfig() can always be used when no option is needed.
+ **/
+public class TFConfig {
+    /**
+     * When true, the implications of the detector and pirate variables are
+     * not added to Gamma when it is built, but only for the sensor cells
+     * and readings for which the agent actually receives evidence.
+     **/
+    boolean lazyGamma = false;
+    /**
+     * Directory where the clauses of Gamma are stored between runs, or null
+     * to generate them in every run
+     **/
+    File gammaCacheDir = null;
+    /**
+     * When true, the pirate answers are encoded with ladder variables that
+     * say that the row of the Treasure is at most y, see
+     * SatInferenceEngine.ladderClauses()
+     **/
+    boolean pirateLadder = false;
+    /**
+     * Strategy used to perform the inference questions of every step
+     **/
+    InferenceMode inference = InferenceMode.PER_CELL;
+    /**
+     * Number of solver replicas used by the PARALLEL inference mode
+     **/
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    /**
+     * SAT solver used by the SAT engine, the command of the external solver
+     * binary for SolverBackend.EXTERNAL, and the time limit of every
+     * question to the solver, in seconds
+     **/
+    SolverBackend solver = SolverBackend.DEFAULT;
+    String externalSolver = null;
+    int solverTimeout = 3600;
+    /**
+     * Latency budget of every step, in milliseconds, or 0 for no budget
+     **/
+    long stepBudgetMillis = 0;
+    /**
+     * Inference engine the agent delegates its reasoning to
+     **/
+    EngineType engine = EngineType.SAT;
+    /**
+     * When true, the agent chooses every movement with a StepPlanner
+     * instead of following its list of steps
+     **/
+    boolean planSteps = false;
+    /**
+     * Where the agent and its environment report what they do
+     **/
+    EventSink events = ConsoleEventSink.STDOUT;
+    /**
+     * JMX object name under which every agent publishes its metrics, or null
+     **/
+    String metricsName = null;
+    /**
+     * File where TreasureWorld keeps a checkpoint of the agent, or null
+     **/
+    File checkpointFile = null;
+
+    /**
+     * Select lazy or eager encoding of the detector and pirate implications
+     *
+     * @param lazy true to encode the implications on demand
+     * @return this configuration
+     **/
+    public TFConfig setLazyGamma(boolean lazy) {
+        lazyGamma = lazy;
+        return this;
+    }
+
+    public boolean isLazyGamma() {
+        return lazyGamma;
+    }
+
+    /**
+     * Select the ladder encoding of the pirate answers, where every answer
+     * is a single unit clause and Gamma has O(N^2) pirate clauses, or the
+     * original one with an implication for every pirate and position
+     *
+     * @param ladder true for the ladder encoding
+     * @return this configuration
+     **/
+    public TFConfig setPirateLadder(boolean ladder) {
+        pirateLadder = ladder;
+        return this;
+    }
+
+    public boolean isPirateLadder() {
+        return pirateLadder;
+    }
+
+    /**
+     * Select a directory where the clauses of Gamma are written the first
+     * time they are generated, and from where they are read in later runs
+     *
+     * @param dir the cache directory, or null to generate Gamma in every run
+     * @return this configuration
+     **/
+    public TFConfig setGammaCacheDir(File dir) {
+        gammaCacheDir = dir;
+        return this;
+    }
+
+    public File getGammaCacheDir() {
+        return gammaCacheDir;
+    }
+
+    /**
+     * Select the strategy used to perform the inference questions
+     *
+     * @param mode the inference strategy
+     * @return this configuration
+     **/
+    public TFConfig setInferenceMode(InferenceMode mode) {
+        inference = mode;
+        return this;
+    }
+
+    public InferenceMode getInferenceMode() {
+        return inference;
+    }
+
+    /**
+     * Set the number of solver replicas used by the PARALLEL inference mode.
+     * Every replica holds a full copy of the formula.
+     *
+     * @param replicas number of solver replicas, at least 1
+     * @return this configuration
+     **/
+    public TFConfig setParallelism(int replicas) {
+        if (replicas < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + replicas);
+        }
+        parallelism = replicas;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Select the SAT solver of the SAT engine. SolverBackend.EXTERNAL needs
+     * the command of the binary, and falls back to the default solver when
+     * the binary is not installed.
+     *
+     * @param backend the SAT solver
+     * @return this configuration
+     **/
+    public TFConfig setSolverBackend(SolverBackend backend) {
+        solver = backend;
+        return this;
+    }
+
+    public SolverBackend getSolverBackend() {
+        return solver;
+    }
+
+    /**
+     * Set the command of the external solver, such as "kissat -q" or
+     * "/usr/local/bin/minisat". The DIMACS file is added as its last argument.
+     *
+     * @param command the binary and its arguments, separated by blanks
+     * @return this configuration
+     **/
+    public TFConfig setExternalSolver(String command) {
+        externalSolver = command;
+        return this;
+    }
+
+    public String getExternalSolver() {
+        return externalSolver;
+    }
+
+    /**
+     * Set the time limit of every question to the solver
+     *
+     * @param seconds the time limit, at least 1
+     * @return this configuration
+     **/
+    public TFConfig setSolverTimeout(int seconds) {
+        if (seconds < 1) {
+            throw new IllegalArgumentException("solver timeout must be at least 1 s: " + seconds);
+        }
+        solverTimeout = seconds;
+        return this;
+    }
+
+    public int getSolverTimeout() {
+        return solverTimeout;
+    }
+
+    /**
+     * Set the latency budget of every step. The inference stops when the
+     * step has used it, and the positions not checked yet stay candidates
+     * until a later step or TreasureFinder.resumePendingInference() checks
+     * them.
+     *
+     * @param millis the budget in milliseconds, or 0 to check all the
+     *               positions in every step
+     * @return this configuration
+     **/
+    public TFConfig setStepBudget(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("negative step budget: " + millis);
+        }
+        stepBudgetMillis = millis;
+        return this;
+    }
+
+    public long getStepBudget() {
+        return stepBudgetMillis;
+    }
+
+    /**
+     * Select the inference engine of the agent. The options about Gamma and
+     * the inference mode only apply to the SAT engine.
+     *
+     * @param type the inference engine
+     * @return this configuration
+     **/
+    public TFConfig setEngine(EngineType type) {
+        engine = type;
+        return this;
+    }
+
+    public EngineType getEngine() {
+        return engine;
+    }
+
+    /**
+     * Select whether the agent plans its movements, choosing every time the
+     * neighbour cell where its sensors are expected to exclude more
+     * positions, or follows its list of steps
+     *
+     * @param plan true to plan the movements
+     * @return this configuration
+     **/
+    public TFConfig setPlanSteps(boolean plan) {
+        planSteps = plan;
+        return this;
+    }
+
+    public boolean isPlanSteps() {
+        return planSteps;
+    }
+
+    /**
+     * Select where the agent and its environment report what they do
+     *
+     * @param sink the event sink
+     * @return this configuration
+     **/
+    public TFConfig setEventSink(EventSink sink) {
+        events = sink;
+        return this;
+    }
+
+    public EventSink getEventSink() {
+        return events;
+    }
+
+    /**
+     * Publish the metrics of the agent as an MBean, see TreasureFinderMetrics.
+     * Agents created with the same name replace the MBean of the previous one.
+     *
+     * @param name JMX object name, such as apryraz.tworld:type=TreasureFinder,name=agent1,
+     *             or null to not publish them
+     * @return this configuration
+     **/
+    public TFConfig setMetricsName(String name) {
+        metricsName = name;
+        return this;
+    }
+
+    public String getMetricsName() {
+        return metricsName;
+    }
+
+    /**
+     * Select a file where TreasureWorld.runStepsSequence() writes a
+     * checkpoint of the agent after every step. When the file exists, the
+     * agent continues from it instead of starting again.
+     *
+     * @param file the checkpoint file, or null to not keep checkpoints
+     * @return this configuration
+     **/
+    public TFConfig setCheckpointFile(File file) {
+        checkpointFile = file;
+        return this;
+    }
+
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Build a configuration from the system properties tworld.engine,
+     * tworld.lazyGamma, tworld.pirateLadder, tworld.gammaCache (a directory), tworld.plan, tworld.inference,
+     * tworld.parallelism, tworld.solver (default, light, glucose, portfolio
+     * or external), tworld.externalSolver (a command), tworld.solverTimeout
+     * (seconds), tworld.stepBudget (milliseconds), tworld.checkpoint (a
+     * file), tworld.metrics (a JMX object name), tworld.events
+     * (console, buffered or silent) and tworld.eventLevel (error, info or
+     * debug). Missing properties keep their default value.
+     *
+     * @return the new configuration
+     **/
+    public static TFConfig fromSystemProperties() {
+        TFConfig config = new TFConfig();
+        String value = System.getProperty("tworld.engine");
+        if (value != null) {
+            config.setEngine(EngineType.valueOf(value.toUpperCase()));
+        }
+        value = System.getProperty("tworld.lazyGamma");
+        if (value != null) {
+            config.setLazyGamma(Boolean.parseBoolean(value));
+        }
+        value = System.getProperty("tworld.pirateLadder");
+        if (value != null) {
+            config.setPirateLadder(Boolean.parseBoolean(value));
+        }
+        value = System.getProperty("tworld.plan");
+        if (value != null) {
+            config.setPlanSteps(Boolean.parseBoolean(value));
+        }
+        value = System.getProperty("tworld.gammaCache");
+        if (value != null) {
+            config.setGammaCacheDir(new File(value));
+        }
+        value = System.getProperty("tworld.inference");
+        if (value != null) {
+            config.setInferenceMode(InferenceMode.valueOf(value.toUpperCase()));
+        }
+        value = System.getProperty("tworld.parallelism");
+        if (value != null) {
+            config.setParallelism(Integer.parseInt(value));
+        }
+        value = System.getProperty("tworld.solver");
+        if (value != null) {
+            config.setSolverBackend(SolverBackend.valueOf(value.toUpperCase()));
+        }
+        config.setExternalSolver(System.getProperty("tworld.externalSolver"));
+        value = System.getProperty("tworld.solverTimeout");
+        if (value != null) {
+            config.setSolverTimeout(Integer.parseInt(value));
+        }
+        value = System.getProperty("tworld.stepBudget");
+        if (value != null) {
+            config.setStepBudget(Long.parseLong(value));
+        }
+        value = System.getProperty("tworld.checkpoint");
+        if (value != null) {
+            config.setCheckpointFile(new File(value));
+        }
+        config.setMetricsName(System.getProperty("tworld.metrics"));
+        EventLevel level = EventLevel.DEBUG;
+        value = System.getProperty("tworld.eventLevel");
+        if (value != null) {
+            level = EventLevel.valueOf(value.toUpperCase());
+        }
+        value = System.getProperty("tworld.events", "console");
+        if (value.equalsIgnoreCase("silent")) {
+            config.setEventSink(SilentEventSink.INSTANCE);
+        } else if (value.equalsIgnoreCase("buffered")) {
+            config.setEventSink(new BufferedEventSink(level));
+        } else if (value.equalsIgnoreCase("console")) {
+            config.setEventSink(new ConsoleEventSink(level));
+        } else {
+            throw new IllegalArgumentException("unknown tworld.events: " + value);
+        }
+        return config;
+    }
+}
@@ -1,55 +1,176 @@
 package apryraz.tworld;
 
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * State of knowledge of the agent: for every position of the world, "X"
+ * if the Treasure cannot be there, or "?" if it is still a candidate.
+ * The matrix is stored as one bit per position, together with the number
+ * of positions that are still candidates.
+ **/
 public class TFState {
     /**
-     *
+     * Dimension of the world
      **/
-
     int wDim;
-    String[][] matrix;
+    /**
+     * Excluded positions, indexed by (x-1) * wDim + (y-1), the lineal
+     * position used by the inference engines. Row i and column j of the
+     * matrix are the position x = j, y = i.
+     **/
+    BitSet excluded;
+    /**
+     * Number of positions that are not excluded
+     **/
+    int numCandidates;
 
     public TFState(int dim) {
         wDim = dim;
-        matrix = new String[wDim][wDim];
+        excluded = new BitSet(wDim * wDim);
         initializeState();
     }
 
     public void initializeState() {
-        for (int i = 0; i < wDim; i++) {
-            for (int j = 0; j < wDim; j++) {
-                matrix[i][j] = "?";
+        excluded.clear();
+        numCandidates = wDim * wDim;
+    }
+
+    private int index(int i, int j) {
+        return (j - 1) * wDim + (i - 1);
+    }
+
+    /**
+     * Set the value of row i, column j of the matrix
+     *
+     * @param i   row, between 1 and wDim
+     * @param j   column, between 1 and wDim
+     * @param val "X" or "?"
+     **/
+    public void set(int i, int j, String val) {
+        int index = index(i, j);
+        boolean wasExcluded = excluded.get(index);
+        if (val.equals("X")) {
+            if (!wasExcluded) {
+                excluded.set(index);
+                numCandidates--;
             }
+        } else if (val.equals("?")) {
+            if (wasExcluded) {
+                excluded.clear(index);
+                numCandidates++;
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown state value: " + val);
         }
     }
 
-    public void set(int i, int j, String val) {
+    /**
+     * Get the value of row i, column j of the matrix
+     *
+     * @param i row, between 1 and wDim
+     * @param j column, between 1 and wDim
+     * @return "X" or "?"
+     **/
+    public String get(int i, int j) {
+        return excluded.get(index(i, j)) ? "X" : "?";
+    }
 
-        matrix[i - 1][j - 1] = val;
+    /**
+     * Mark as excluded all the positions of a set
+     *
+     * @param positions lineal positions, (x-1) * wDim + (y-1)
+     **/
+    void excludeAll(BitSet positions) {
+        excluded.or(positions);
+        numCandidates = wDim * wDim - excluded.cardinality();
     }
 
-    public boolean equals(Object obj) {
-        TFState tfstate2 = (TFState) obj;
-        boolean status = true;
+    /**
+     * @param x x coordinate of the position
+     * @param y y coordinate of the position
+     * @return true if the Treasure can still be at (x,y)
+     **/
+    public boolean isCandidate(int x, int y) {
+        return !excluded.get((x - 1) * wDim + (y - 1));
+    }
+
+    /**
+     * @return the number of positions where the Treasure can still be
+     **/
+    public int getNumCandidates() {
+        return numCandidates;
+    }
 
-        for (int i = 0; i < wDim; i++) {
-            for (int j = 0; j < wDim; j++) {
-                if (!matrix[i][j].equals(tfstate2.matrix[i][j]))
-                    status = false;
+    /**
+     * @return an iterator over the positions where the Treasure can still
+     * be, ordered by x and then by y
+     **/
+    public Iterator<Position> candidates() {
+        return new Iterator<Position>() {
+            int next = excluded.nextClearBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < wDim * wDim;
             }
+
+            @Override
+            public Position next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Position position = new Position(next / wDim + 1, next % wDim + 1);
+                next = excluded.nextClearBit(next + 1);
+                return position;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public boolean equals(Object obj) {
+        if (!(obj instanceof TFState)) {
+            return false;
         }
+        TFState tfstate2 = (TFState) obj;
+        return wDim == tfstate2.wDim && numCandidates == tfstate2.numCandidates
+                && excluded.equals(tfstate2.excluded);
+    }
 
-        return status;
+    public int hashCode() {
+        return 31 * wDim + excluded.hashCode();
     }
 
     public void printState() {
-        System.out.println("FINDER => Printing Treasure world matrix");
-        for (int i = wDim - 1; i > -1; i--) {
-            System.out.print("\t#\t");
-            for (int j = 0; j < wDim; j++) {
-                System.out.print(matrix[i][j] + " ");
+        printState(ConsoleEventSink.STDOUT);
+    }
+
+    /**
+     * Report the matrix as a single DEBUG event, which is not built at all
+     * when the sink does not accept that level
+     *
+     * @param events where the matrix is reported
+     **/
+    public void printState(EventSink events) {
+        if (!events.isEnabled(EventLevel.DEBUG)) {
+            return;
+        }
+        String separator = System.lineSeparator();
+        StringBuilder matrix = new StringBuilder(64 + wDim * (wDim * 2 + 8));
+        matrix.append("FINDER => Printing Treasure world matrix");
+        for (int i = wDim; i >= 1; i--) {
+            matrix.append(separator).append("\t#\t");
+            for (int j = 1; j <= wDim; j++) {
+                matrix.append(get(i, j)).append(' ');
             }
-            System.out.println("\t#");
+            matrix.append("\t#");
         }
+        events.log(EventLevel.DEBUG, matrix.toString());
     }
 
 }
@@ -4,22 +4,32 @@ package apryraz.tworld;
 
 import java.util.ArrayList;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 
 import static java.lang.System.exit;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+
 import org.sat4j.core.VecInt;
 
 import org.sat4j.specs.*;
@@ -37,18 +47,13 @@ public class TreasureFinder {
 
 
     /**
-     * The list of steps to perform
+     * The steps to perform
      **/
-    ArrayList<Position> listOfSteps;
+    StepSource listOfSteps;
     /**
-     * index to the next movement to perform, and total number of movements
+     * index to the next movement to perform, and maximum number of movements
      **/
     int idNextStep, numMovements;
-    /**
-     * Array of clauses that represent conclusiones obtained in the last
-     * call to the inference function, but rewritten using the "past" variables
-     **/
-    ArrayList<VecInt> futureToPast = null;
     /**
      * the current state of knowledge of the agent (what he knows about
      * every position of the world)
@@ -58,35 +63,58 @@ public class TreasureFinder {
      * The object that represents the interface to the Treasure World
      **/
     TreasureWorldEnv EnvAgent;
-    /**
-     * SAT solver object that stores the logical boolean formula with the rules
-     * and current knowledge about not possible locations for Treasure
-     **/
-    ISolver solver;
     /**
      * Agent position in the world and variable to record if there is a pirate
      * at that current position
      **/
     int agentX, agentY, pirateFound;
+    /**
+     * Number of movements made, and how many of them found a pirate
+     **/
+    int movesMade, piratesMet;
+    /**
+     * Position where the detector gave a reading of 1, or null
+     **/
+    Position treasureFound;
+    /**
+     * Log of the evidence obtained, as codes of TFCheckpoint.evidenceCode(),
+     * kept for checkpoints
+     **/
+    int[] evidenceLog = new int[16];
+    int numEvidence;
     /**
      * Dimension of the world and total size of the world (Dim^2)
      **/
     int WorldDim, WorldLinealDim;
 
     /**
-     * This set of variables CAN be use to mark the beginning of different sets
-     * of variables in your propositional formula (but you may have more sets of
-     * variables in your solution).
+     * Options selected for this agent
+     **/
+    TFConfig config;
+    /**
+     * The engine that stores the knowledge of the agent and performs the
+     * inferences about the possible positions of the Treasure
      **/
-    int TreasurePastOffset;
-    int TreasureFutureOffset;
-    int Detector0Offset=0;
-    int Detector1Offset=0;
-    int Detector2Offset=0;
-    int Detector3Offset=0;
-    int pirateAboveOffset=0;
-    int pirateBelowOffset=0;
-    int actualLiteral;
+    InferenceEngine engine;
+    /**
+     * Where the agent reports what it does, taken from config
+     **/
+    EventSink events;
+    /**
+     * Chooses the movements when config asks to plan them, else null
+     **/
+    StepPlanner planner;
+    /**
+     * Metrics of the steps performed, and the counters of the engine read
+     * at the end of the last step
+     **/
+    final TreasureFinderMetrics metrics = new TreasureFinderMetrics();
+    /**
+     * Latency budget of every step in nanoseconds, from config, or
+     * Long.MAX_VALUE without budget
+     **/
+    long stepBudgetNanos;
+    StepMetrics counters = new StepMetrics();
 
 
     /**
@@ -97,22 +125,55 @@ public class TreasureFinder {
      * @param WDim the dimension of the Treasure World
      **/
     public TreasureFinder(int WDim) {
+        this(WDim, new TFConfig());
+    }
+
+    /**
+     * Same as TreasureFinder(WDim), but with the options given in config
+     *
+     * @param WDim   the dimension of the Treasure World
+     * @param config the options of the agent
+     * @throws IllegalStateException if the formula of the rules of the
+     *                               world cannot be built
+     **/
+    public TreasureFinder(int WDim, TFConfig config) {
 
+        this.config = config;
+        events = config.events;
         WorldDim = WDim;
         WorldLinealDim = WorldDim * WorldDim;
 
-        try {
-            solver = buildGamma();
-        } catch (ContradictionException ex) {
-            Logger.getLogger(TreasureFinder.class.getName()).log(Level.SEVERE, null, ex);
+        if (config.engine == EngineType.BITBOARD) {
+            engine = new BitboardInferenceEngine(WorldDim);
+        } else {
+            try {
+                engine = new SatInferenceEngine(WorldDim, config);
+            } catch (ContradictionException ex) {
+                // Gamma only has the rules of the world, it cannot be contradictory
+                throw new IllegalStateException("contradictory rules of the world", ex);
+            }
         }
         numMovements = 0;
         idNextStep = 0;
-        System.out.println("STARTING TREASURE FINDER AGENT...");
+        stepBudgetNanos = config.stepBudgetMillis > 0
+                ? config.stepBudgetMillis * 1000000L : Long.MAX_VALUE;
+        if (config.planSteps) {
+            planner = new StepPlanner(WorldDim);
+        }
+        // The work of building the formula is not part of any step
+        engine.readCounters(counters);
+        if (config.metricsName != null) {
+            try {
+                metrics.register(config.metricsName);
+            } catch (JMException ex) {
+                events.log(EventLevel.ERROR, "MSG.   => Metrics not published: " + ex.getMessage());
+            }
+        }
+        events.log(EventLevel.INFO, "STARTING TREASURE FINDER AGENT...");
 
 
         tfstate = new TFState(WorldDim);  // Initialize state (matrix) of knowledge with '?'
-        tfstate.printState();
+        tfstate.printState(events);
     }
 
     /**
@@ -129,39 +190,68 @@ public class TreasureFinder {
 
 
     /**
-     * Load a sequence of steps to be performed by the agent. This sequence will
-     * be stored in the listOfSteps ArrayList of the agent.  Steps are represented
-     * as objects of the class Position.
+     * Load a sequence of steps to be performed by the agent. The steps are
+     * read from the file while the agent performs them, see FileStepSource,
+     * and the file is closed after the last step, or by closeListOfSteps().
+     * Steps are represented as objects of the class Position.
      *
      * @param numSteps  number of steps to read from the file
-     * @param stepsFile the name of the text file with the line that contains
-     *                  the sequence of steps: x1,y1 x2,y2 ...  xn,yn
+     * @param stepsFile the name of the text file with the sequence of steps:
+     *                  x1,y1 x2,y2 ...  xn,yn, in one or more lines
      **/
     public void loadListOfSteps(int numSteps, String stepsFile) {
-        String[] stepsList;
-        String steps = ""; // Prepare a list of movements to try with the FINDER Agent
         try {
-            BufferedReader br = new BufferedReader(new FileReader(stepsFile));
-            System.out.println("STEPS FILE OPENED ...");
-            steps = br.readLine();
-            br.close();
+            setStepSource(new FileStepSource(stepsFile), numSteps);
+            events.log(EventLevel.INFO, "STEPS FILE OPENED ...");
         } catch (FileNotFoundException ex) {
-            System.out.println("MSG.   => Steps file not found");
+            events.log(EventLevel.ERROR, "MSG.   => Steps file not found");
+            events.close();
             exit(1);
         } catch (IOException ex) {
             Logger.getLogger(TreasureFinder.class.getName()).log(Level.SEVERE, null, ex);
             exit(2);
         }
-        stepsList = steps.split(" ");
-        listOfSteps = new ArrayList<Position>(numSteps);
-        for (int i = 0; i < numSteps; i++) {
-            String[] coords = stepsList[i].split(",");
-            listOfSteps.add(new Position(Integer.parseInt(coords[0]), Integer.parseInt(coords[1])));
-        }
-        numMovements = listOfSteps.size(); // Initialization of numMovements
+    }
+
+    /**
+     * Set the sequence of steps to be performed by the agent, instead of
+     * loading it from a file
+     *
+     * @param steps the positions to move to, in order
+     **/
+    public void setListOfSteps(List<Position> steps) {
+        setStepSource(new IteratorStepSource(new ArrayList<Position>(steps).iterator()),
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Set the source of the steps to be performed by the agent. The previous
+     * source, if any, is closed.
+     *
+     * @param steps    the source of the steps
+     * @param numSteps maximum number of steps taken from the source
+     **/
+    public void setStepSource(StepSource steps, int numSteps) {
+        closeListOfSteps();
+        listOfSteps = steps;
+        numMovements = numSteps;
         idNextStep = 0;
     }
 
+    /**
+     * Close the source of the steps, when the agent will not perform more steps
+     **/
+    public void closeListOfSteps() {
+        if (listOfSteps != null) {
+            try {
+                listOfSteps.close();
+            } catch (IOException ex) {
+                Logger.getLogger(TreasureFinder.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            listOfSteps = null;
+        }
+    }
+
     /**
      * Returns the current state of the agent.
      *
@@ -171,12 +261,37 @@ public class TreasureFinder {
         return tfstate;
     }
 
+    /**
+     * Check whether the agent already knows where the Treasure is: the
+     * detector gave a reading of 1, or only one position remains possible
+     *
+     * @return true if the Treasure is located
+     **/
+    public boolean isSolved() {
+        return treasureFound != null || tfstate.getNumCandidates() == 1;
+    }
+
+    /**
+     * @return the position of the Treasure if the agent already knows it,
+     * else null
+     **/
+    public Position getTreasurePosition() {
+        if (treasureFound != null) {
+            return treasureFound;
+        }
+        if (tfstate.getNumCandidates() == 1) {
+            return tfstate.candidates().next();
+        }
+        return null;
+    }
+
     /**
      * Execute the next step in the sequence of steps of the agent, and then
      * use the agent sensor to get information from the environment. In the
      * original Treasure World, this would be to use the Smelll Sensor to get
      * a binary answer, and then to update the current state according to the
      * result of the logical inferences performed by the agent with its formula.
+     * Once the Treasure is located (see isSolved()), it does nothing.
      *
      * @throws IOException            when opening states or steps file.
      * @throws ContradictionException if inserting contradictory information to solver.
@@ -185,49 +300,122 @@ public class TreasureFinder {
      **/
     public void runNextStep() throws
             IOException, ContradictionException, TimeoutException {
+        if (isSolved()) {
+            // Nothing else can be learnt once the Treasure is located
+            return;
+        }
+        StepMetrics step = new StepMetrics();
+        long start = System.nanoTime();
+        engine.setDeadline(stepBudgetNanos == Long.MAX_VALUE
+                ? Long.MAX_VALUE : start + stepBudgetNanos);
         pirateFound = 0;
         // Add the conclusions obtained in the previous step
         // but as clauses that use the "past" variables
         addLastFutureClausesToPastClauses();
+        long pastDone = System.nanoTime();
 
         // Ask to move, and check whether it was successful
         // Also, record if a pirate was found at that position
         processMoveAnswer(moveToNext());
 
-        // Next, use Detector sensor to discover new information
-        processDetectorSensorAnswer(DetectsAt());
-        // If a pirate was found at new agent position, ask question to
-        // pirate and process Answer to discover new information
-        if (pirateFound == 1) {
-            processPirateAnswer(IsTreasureUpOrDown());
+        // Next, use Detector sensor to discover new information, and
+        // if a pirate was found at new agent position, ask question to pirate
+        AMessage detectorAnswer = DetectsAt();
+        AMessage pirateAnswer = pirateFound == 1 ? IsTreasureUpOrDown() : null;
+        long senseDone = System.nanoTime();
+
+        // Process the answers to add the new information
+        processDetectorSensorAnswer(detectorAnswer);
+        if (pirateAnswer != null) {
+            processPirateAnswer(pirateAnswer);
         }
+        long evidenceDone = System.nanoTime();
 
         // Perform logical consequence questions for all the positions
         // of the Treasure World
         performInferenceQuestions();
-        tfstate.printState();      // Print the resulting knowledge matrix
+        long inferenceDone = System.nanoTime();
+        recordStep(step, start, pastDone, senseDone, evidenceDone, inferenceDone);
+        tfstate.printState(events);      // Print the resulting knowledge matrix
+    }
+
+    /**
+     * Complete the metrics of a step with the times of its phases and the
+     * counters of the engine, and record them
+     **/
+    private void recordStep(StepMetrics step, long start, long pastDone, long senseDone,
+                            long evidenceDone, long inferenceDone) {
+        step.steps = 1;
+        step.phaseNanos[StepMetrics.PAST_CLAUSES] = pastDone - start;
+        step.phaseNanos[StepMetrics.MOVE_AND_SENSE] = senseDone - pastDone;
+        step.phaseNanos[StepMetrics.EVIDENCE] = evidenceDone - senseDone;
+        step.phaseNanos[StepMetrics.INFERENCE] = inferenceDone - evidenceDone;
+        StepMetrics now = new StepMetrics();
+        engine.readCounters(now);
+        step.setCounters(now, counters);
+        counters = now;
+        step.numCandidates = tfstate.getNumCandidates();
+        metrics.record(step);
+    }
+
+    /**
+     * @return the metrics of the steps performed by the agent, which can
+     * also be published as an MBean
+     **/
+    public TreasureFinderMetrics getMetrics() {
+        return metrics;
     }
 
 
     /**
      * Ask the agent to move to the next position, by sending an appropriate
-     * message to the environment object. The answer returned by the environment
+     * message to the environment object. The next position is the next one
+     * of the list of steps, or the one chosen by the planner when the agent
+     * plans its movements. The answer returned by the environment
      * will be returned to the caller of the function.
      *
      * @return the answer message from the environment, that will tell whether the
      * movement was successful or not.
+     * @throws IOException if the next step can not be read from its source
      **/
-    public AMessage moveToNext() {
+    public AMessage moveToNext() throws IOException {
         Position nextPosition;
 
-        if (idNextStep < numMovements) {
-            nextPosition = listOfSteps.get(idNextStep);
+        if (planner != null) {
+            nextPosition = planNextStep();
+            return moveTo(nextPosition.x, nextPosition.y);
+        }
+        nextPosition = null;
+        if (listOfSteps != null && idNextStep < numMovements) {
+            nextPosition = listOfSteps.nextStep();
+        }
+        if (nextPosition != null) {
             idNextStep = idNextStep + 1;
+            if (idNextStep == numMovements) {
+                // The last step: the source is not needed any more
+                closeListOfSteps();
+            }
             return moveTo(nextPosition.x, nextPosition.y);
         } else {
-            System.out.println("NO MORE steps to perform at agent!");
-            return (new AMessage("NOMESSAGE", "", "",""));
+            closeListOfSteps();
+            events.log(EventLevel.INFO, "NO MORE steps to perform at agent!");
+            return (new AMessage(MessageType.NOMESSAGE, 0, 0, 0));
+        }
+    }
+
+    /**
+     * Choose the next movement with the planner. The agent starts at (1,1),
+     * so the first movement senses there. The chance of meeting a pirate is
+     * estimated from the movements made so far.
+     *
+     * @return the position to move to
+     **/
+    Position planNextStep() {
+        if (movesMade == 0) {
+            return new Position(1, 1);
         }
+        double pirateProbability = (double) piratesMet / movesMade;
+        return planner.nextStep(tfstate, agentX, agentY, pirateProbability);
     }
 
     /**
@@ -245,9 +433,11 @@ public class TreasureFinder {
         // Tell the EnvironmentAgentID that we want  to move
         AMessage msg, ans;
 
-        msg = new AMessage("moveto", (new Integer(x)).toString(), (new Integer(y)).toString(), "");
+        msg = AMessage.moveTo(x, y);
         ans = EnvAgent.acceptMessage(msg);
-        System.out.println("FINDER => moving to : (" + x + "," + y + ")");
+        if (events.isEnabled(EventLevel.INFO)) {
+            events.log(EventLevel.INFO, "FINDER => moving to : (" + x + "," + y + ")");
+        }
 
         return ans;
     }
@@ -259,11 +449,18 @@ public class TreasureFinder {
      * @param moveans the answer given by the environment to the last move message
      **/
     public void processMoveAnswer(AMessage moveans) {
-        if (moveans.getComp(0).equals("movedto")) {
-            agentX = Integer.parseInt(moveans.getComp(1));
-            agentY = Integer.parseInt(moveans.getComp(2));
-            pirateFound = Integer.parseInt(moveans.getComp(3));
-            System.out.println("FINDER => moved to : (" + agentX + "," + agentY + ")" + " Pirate found : " + pirateFound);
+        if (moveans.getType() == MessageType.MOVEDTO) {
+            agentX = moveans.getX();
+            agentY = moveans.getY();
+            pirateFound = moveans.getValue();
+            movesMade++;
+            piratesMet += pirateFound;
+            if (planner != null) {
+                planner.visit(agentX, agentY);
+            }
+            if (events.isEnabled(EventLevel.INFO)) {
+                events.log(EventLevel.INFO, "FINDER => moved to : (" + agentX + "," + agentY + ")" + " Pirate found : " + pirateFound);
+            }
         }
     }
 
@@ -276,10 +473,11 @@ public class TreasureFinder {
     public AMessage DetectsAt() {
         AMessage msg, ans;
 
-        msg = new AMessage("detectsat", (new Integer(agentX)).toString(),
-                (new Integer(agentY)).toString(), "");
+        msg = AMessage.detectsAt(agentX, agentY);
         ans = EnvAgent.acceptMessage(msg);
-        System.out.println("FINDER => detecting at : (" + agentX + "," + agentY + ")");
+        if (events.isEnabled(EventLevel.INFO)) {
+            events.log(EventLevel.INFO, "FINDER => detecting at : (" + agentX + "," + agentY + ")");
+        }
         return ans;
     }
 
@@ -294,97 +492,22 @@ public class TreasureFinder {
     public void processDetectorSensorAnswer(AMessage ans) throws
             ContradictionException {
 
-        int x = Integer.parseInt(ans.getComp(1));
-        int y = Integer.parseInt(ans.getComp(2));
-        String detects = ans.getComp(0);
+        int x = ans.getX();
+        int y = ans.getY();
+        int detects = ans.getValue();
 
-        // Call your function/functions to add the evidence clauses
-        // to Gamma to then be able to infer new NOT possible positions
-        addDetectorEvidenceClauses(x,y,detects);
-
-    }
-
-    /** We need to add the clauses reggarding to the evidences we get from the metal detector.
-     *
-     * @param x coordinate for the possition x
-     * @param y coordinate for the possition y
-     * @param detects it correspounds to the range detected by the agent, will be between
-     *                the ranges: 0,1,2,3.
-     */
-    private void addDetectorEvidenceClauses(int x, int y, String detects) throws ContradictionException{
-        System.out.println("Detector returned: " + detects);
-        System.out.println("Inserting detector evidence");
-        switch (detects){
-            case "1":
-                addClause(x,y,+1,Detector1Offset);
-                for (int i = 1; i <= WorldDim; i++) {
-                    for (int j = 1; j <= WorldDim; j++) {
-                        if(!(x==i && y==j)){
-                            addClause(i,j,-1,TreasureFutureOffset);
-                        }
-                    }
-                }
-                System.out.println("Treasure found!");
-                break;
-            case "2":
-                addClause(x,y,+1,Detector2Offset);
-                for (int i = 1; i <= WorldDim; i++) {
-                    for (int j = 1; j <= WorldDim; j++) {
-                        if(pitagor(Math.abs(i-x),Math.abs(j-y)) != 1){
-                            addClause(i,j,-1,TreasureFutureOffset);
-                        }
-                    }
-                }
-                break;
-            case "3":
-                addClause(x,y,+1,Detector3Offset);
-                for (int i = 1; i <= WorldDim; i++) {
-                    for (int j = 1; j <= WorldDim; j++) {
-                        if(pitagor(Math.abs(i-x),Math.abs(j-y)) != 2){
-                            addClause(i,j,-1,TreasureFutureOffset);
-                        }
-                    }
-                }
-                break;
-            case "0":
-                addClause(x,y,+1,Detector0Offset);
-                for (int i = 1; i <= WorldDim; i++) {
-                    for (int j = 1; j <= WorldDim; j++) {
-                        if(pitagor(Math.abs(i-x),Math.abs(j-y)) < 3){
-                            addClause(i,j,-1,TreasureFutureOffset);
-                        }
-                    }
-                }
-                break;
+        if (events.isEnabled(EventLevel.INFO)) {
+            events.log(EventLevel.INFO, "Detector returned: " + detects);
+            events.log(EventLevel.INFO, "Inserting detector evidence");
         }
-    }
-
-    public static double pitagor (int x , int y){
-        double c = Math.sqrt((x*x)+(y*y));
-        return Math.floor(c);
-    }
-
-    /**
-     * It models the information using solver's vector and adds it to the solver.
-     *
-     * @param x coordinate of the possition x
-     * @param y coordinate for the possition y
-     * @param sign it indicates the sign of an specific literal, may be -1 or 1
-     * @param offset it is the offset that corresponds to the subset of variables
-     *               that contains that literal.
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     * it prevents from inserting contradictory clauses in the formula.
-     */
-    private void addClause(int x, int y, int sign, int offset) throws ContradictionException {
-        int lc;
-        VecInt evidence = new VecInt();
-        if(sign == -1){
-            lc = -(coordToLineal(x,y,offset));
-        }else{
-            lc = coordToLineal(x,y,offset);
+        // Add the evidence to the knowledge of the agent, to then be able
+        // to infer new NOT possible positions
+        engine.addDetectorEvidence(x, y, detects);
+        logEvidence(x, y, detects);
+        if (detects == 1) {
+            treasureFound = new Position(x, y);
+            events.log(EventLevel.INFO, "Treasure found!");
         }
-        evidence.insertFirst(lc);
-        solver.addClause(evidence);
     }
 
     /**
@@ -396,10 +519,11 @@ public class TreasureFinder {
     public AMessage IsTreasureUpOrDown() {
         AMessage msg, ans;
 
-        msg = new AMessage("treasureup", (new Integer(agentX)).toString(),
-                (new Integer(agentY)).toString(), "");
+        msg = AMessage.treasureUp(agentX, agentY);
         ans = EnvAgent.acceptMessage(msg);
-        System.out.println("FINDER => checking treasure up of : (" + agentX + "," + agentY + ")");
+        if (events.isEnabled(EventLevel.INFO)) {
+            events.log(EventLevel.INFO, "FINDER => checking treasure up of : (" + agentX + "," + agentY + ")");
+        }
         return ans;
     }
 
@@ -411,328 +535,228 @@ public class TreasureFinder {
      * it prevents from inserting contradictory clauses in the formula.
      */
     public void processPirateAnswer(AMessage ans) throws ContradictionException{
-        int x = Integer.parseInt(ans.getComp(1));
-        int y = Integer.parseInt(ans.getComp(2));
-        String isup = ans.getComp(0);
-
-        if(isup.equals("yes")){
-            for (int i = 1; i <= WorldDim; i++) {
-                for (int j = y; j > 0; j--) {
-                    addClause(i,j, -1, TreasureFutureOffset);
-                }
-            }
-        }else{
-            for (int i = 1; i <= WorldDim; i++) {
-                for (int j = y+1; j <= WorldDim; j++) {
-                    addClause(i,j,-1,TreasureFutureOffset);
-                }
-            }
-        }
+        engine.addPirateEvidence(ans.getX(), ans.getY(), ans.getValue() == 1);
+        logEvidence(ans.getX(), ans.getY(),
+                ans.getValue() == 1 ? TFCheckpoint.PIRATE_UP : TFCheckpoint.PIRATE_DOWN);
     }
 
-
-    /**
-     * This function should add all the clauses stored in the list
-     * futureToPast to the formula stored in solver.
-     * Use the function addClause( VecInt ) to add each clause to the solver
-     *
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     *      * it prevents from inserting contradictory clauses in the formula.
-     **/
-    public void addLastFutureClausesToPastClauses() throws ContradictionException {
-        if(futureToPast != null){
-            for(VecInt v: futureToPast){
-                solver.addClause(v);
-            }
+    private void logEvidence(int x, int y, int kind) {
+        if (numEvidence == evidenceLog.length) {
+            evidenceLog = Arrays.copyOf(evidenceLog, numEvidence * 2);
         }
-
+        evidenceLog[numEvidence++] = TFCheckpoint.evidenceCode(x, y, kind, WorldDim);
     }
 
     /**
-     * This function should check, using the future variables related
-     * to possible positions of Treasure, whether it is a logical consequence
-     * that Treasure is NOT at certain positions. This should be checked for all the
-     * positions of the Treasure World.
-     * The logical consequences obtained, should be then stored in the futureToPast list
-     * but using the variables corresponding to the "past" variables of the same positions
-     * <p>
-     * An efficient version of this function should try to not add to the futureToPast
-     * conclusions that were already added in previous steps, although this will not produce
-     * any bad functioning in the reasoning process with the formula.
+     * Write a snapshot of the knowledge of the agent, see TFCheckpoint
      *
-     * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
-     *                          exceeds the timeout.
+     * @param out where the snapshot is written. It is not closed.
+     * @throws IOException if the snapshot can not be written
      **/
-    public void performInferenceQuestions() throws TimeoutException {
-        futureToPast = new ArrayList<>();
-        for (int i = 1; i <= WorldDim; i++) {
-            for (int j = 1; j <= WorldDim; j++) {
-                int indexPast = coordToLineal(i, j, TreasurePastOffset);
-                int index = coordToLineal(i, j, TreasureFutureOffset);
-                VecInt positiveVar = new VecInt();
-                positiveVar.insertFirst(index);
-
-                //It checks if Γ + positiveVar it is unsatisfiable
-                //Then it adds the conclusion to the list but regarding to variables from the past
-                if (!(solver.isSatisfiable(positiveVar))) {
-                    VecInt past = new VecInt();
-                    past.insertFirst(-(indexPast));
-                    futureToPast.add(past);
-                    tfstate.set(j, i, "X");
-                }
-            }
-        }
+    public void checkpoint(OutputStream out) throws IOException {
+        TFCheckpoint checkpoint = new TFCheckpoint();
+        checkpoint.dim = WorldDim;
+        checkpoint.agentX = agentX;
+        checkpoint.agentY = agentY;
+        checkpoint.idNextStep = idNextStep;
+        checkpoint.movesMade = movesMade;
+        checkpoint.piratesMet = piratesMet;
+        checkpoint.excluded = tfstate.excluded;
+        checkpoint.evidence = evidenceLog;
+        checkpoint.numEvidence = numEvidence;
+        checkpoint.write(out);
     }
 
     /**
-     * This function builds the initial logical formula of the agent and stores it
-     * into the solver object.
+     * Write a snapshot of the knowledge of the agent to a file. The snapshot
+     * is written to a temporary file that then replaces the file, so the
+     * file always holds a complete snapshot.
      *
-     * @return returns the solver object where the formula has been stored
-     *
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     *      * it prevents from inserting contradictory clauses in the formula.
+     * @param file where the snapshot is written
+     * @throws IOException if the snapshot can not be written
      **/
-    public ISolver buildGamma() throws ContradictionException {
-
-        int totalNumVariables;
-
-        // You must set this variable to the total number of boolean variables
-        // in your formula Gamma
-        totalNumVariables = WorldLinealDim*4 + WorldLinealDim*2 + WorldLinealDim*2;
-        solver = SolverFactory.newDefault();
-        solver.setTimeout(3600);
-        solver.newVar(totalNumVariables);
-        // This variable is used to generate, in a particular sequential order,
-        // the variable indentifiers of all the variables
-        actualLiteral = 1;
-
-        // call here functions to add the differen sets of clauses
-        // of Gamma to the solver object
-
-        pastState(); //Treasure state t-1
-        futureState(); //Treasure state t+1
-        pastTofutureState(); //Treasure state t-1 to Treasure state t+1
-
-        detectorClauses(); //Implications from the metal sensor
-        pirateClauses();   //pirate implications
-
-        notInInitialPos(); //Implicates that the treasure is not in the initial position
-
-        return solver;
+    public void checkpoint(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary));
+        try {
+            checkpoint(out);
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
     }
 
     /**
-     * We need to add all the clauses for the possible implications a pirate may have.
+     * Continue from a snapshot written by checkpoint(), without performing
+     * the steps again: the evidence is added to the knowledge of the agent,
+     * and the excluded positions become knowledge about the past. The agent
+     * must not have performed any step. If it already has its steps, the
+     * ones performed before the snapshot are skipped, so the steps must be
+     * set before calling this function.
      *
-     *  @throws ContradictionException it must be included when adding clauses to a solver,
-     *      *      * it prevents from inserting contradictory clauses in the formula.
-     */
-    private void pirateClauses() throws ContradictionException {
-        for (int k = 0; k < 2; k++) {
-            for (int i = 1; i <= WorldDim; i++) {
-                for (int j = 1; j <= WorldDim; j++) {
-                    if (k == 0) {
-                        if (pirateAboveOffset == 0) {
-                            pirateAboveOffset = actualLiteral;
-                        }
-                        pirateAboveImpl(i, j);
-                    } else {
-                        if (pirateBelowOffset == 0) {
-                            pirateBelowOffset = actualLiteral;
-                        }
-                        pirateBelowImpl(i, j);
-                    }
-                    actualLiteral++;
+     * @param in where the snapshot is read from. It is not closed.
+     * @throws IOException            if the snapshot can not be read, is not
+     *                                valid, or is of another dimension
+     * @throws ContradictionException if the snapshot contradicts the rules of the world
+     **/
+    public void restore(InputStream in) throws IOException, ContradictionException {
+        if (movesMade > 0 || numEvidence > 0) {
+            throw new IllegalStateException("the agent has already performed steps");
+        }
+        TFCheckpoint checkpoint = TFCheckpoint.read(in);
+        if (checkpoint.dim != WorldDim) {
+            throw new IOException("checkpoint of dimension " + checkpoint.dim
+                    + " for a world of dimension " + WorldDim);
+        }
+        for (int e = 0; e < checkpoint.numEvidence; e++) {
+            int code = checkpoint.evidence[e];
+            int c = code / TFCheckpoint.NUM_KINDS, kind = code % TFCheckpoint.NUM_KINDS;
+            int x = c / WorldDim + 1, y = c % WorldDim + 1;
+            if (kind == TFCheckpoint.PIRATE_UP || kind == TFCheckpoint.PIRATE_DOWN) {
+                engine.addPirateEvidence(x, y, kind == TFCheckpoint.PIRATE_UP);
+            } else {
+                engine.addDetectorEvidence(x, y, kind);
+                if (kind == 1) {
+                    treasureFound = new Position(x, y);
+                }
+                if (planner != null) {
+                    planner.visit(x, y);
                 }
             }
         }
-    }
-
-    /**
-     * We need to add all the clauses for the possible implications the detector may have
-     *
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     *      * it prevents from inserting contradictory clauses in the formula.
-     */
-    private void detectorClauses() throws ContradictionException {
-        for (int k = 0; k < 4; k++) { //Possible values of our detector
-            for (int i = 1; i <= WorldDim; i++) {
-                for (int j = 1; j <= WorldDim; j++) {
-                        switch (k){
-                            case 0:
-                                if(Detector0Offset == 0){ Detector0Offset = actualLiteral;}
-                                detectorImplicationsCase0(i,j,Detector0Offset);
-                                break;
-                            case 1:
-                                if(Detector1Offset == 0){ Detector1Offset = actualLiteral;}
-                                detectorImplications(i,j,0,Detector1Offset);
-                                break;
-                            case 2:
-                                if(Detector2Offset == 0){ Detector2Offset = actualLiteral;}
-                                detectorImplications(i,j,1,Detector2Offset);
-                                break;
-                            case 3:
-                                if(Detector3Offset == 0){ Detector3Offset = actualLiteral;}
-                                detectorImplications(i,j,2,Detector3Offset);
-                                break;
-                    }
-                    actualLiteral++;
-                }
+        evidenceLog = checkpoint.evidence;
+        numEvidence = checkpoint.numEvidence;
+        engine.restoreExcluded(checkpoint.excluded);
+        tfstate.excludeAll(checkpoint.excluded);
+        agentX = checkpoint.agentX;
+        agentY = checkpoint.agentY;
+        movesMade = checkpoint.movesMade;
+        piratesMet = checkpoint.piratesMet;
+        for (int step = 0; step < checkpoint.idNextStep && listOfSteps != null; step++) {
+            if (listOfSteps.nextStep() == null) {
+                closeListOfSteps();
             }
         }
+        idNextStep = checkpoint.idNextStep;
+        if (idNextStep >= numMovements) {
+            closeListOfSteps();
+        }
+        events.log(EventLevel.INFO, "FINDER => Restored at step " + idNextStep
+                + " with " + tfstate.getNumCandidates() + " candidates");
     }
 
-    /**Adds the implications between detector cases 1,2,3 and the locations where we are sure
-     * the treasure can not be.
+    /**
+     * Continue from a snapshot file written by checkpoint(File), see restore(InputStream)
      *
-     * @param x detector x coord
-     * @param y detector y coord
-     * @param range it specifies the range  that the detector returns
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     *      * it prevents from inserting contradictory clauses in the formula.
-     */
-    private void detectorImplications(int x, int y, int range, int offset) throws ContradictionException {
-        for (int i = 1; i <= WorldDim; i++) {
-            for (int j = 1; j <= WorldDim; j++) {
-                if(Math.abs(i-x)==range || Math.abs(j-y)==range){}
-                else{
-                    VecInt implication = new VecInt();
-                    implication.insertFirst(-(coordToLineal(x,y,offset)));
-                    implication.insertFirst(-(coordToLineal(i,j,TreasureFutureOffset)));
-                    solver.addClause(implication);
-                }
-            }
+     * @param file the snapshot file
+     **/
+    public void restore(File file) throws IOException, ContradictionException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            restore(in);
+        } finally {
+            in.close();
         }
     }
+
+
     /**
-     *Case0 is a bit different from the other ranges implications because the others just look at a certain distance
-     * from the actual coord while case0 says; the treasure it's beyond Math.abs(i,j-x,y)>=3.
-     *
-     * @param x detector x coord
-     * @param y detector y coord
+     * Find out what the agent would know if the metal detector at (x,y)
+     * gave the given reading, without changing its knowledge or its state.
      *
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     *      * it prevents from inserting contradictory clauses in the formula.
-     */
-    private void detectorImplicationsCase0(int x, int y, int offset) throws ContradictionException {
-        for (int i = 1; i <= WorldDim; i++) {
-            for (int j = 1; j <= WorldDim; j++) {
-                if(Math.abs(i-x)>=3 || Math.abs(j-y)>=3){}
-                else{
-                    VecInt implication = new VecInt();
-                    implication.insertFirst(-(coordToLineal(x,y,offset)));
-                    implication.insertFirst(-(coordToLineal(i,j,TreasureFutureOffset)));
-                    solver.addClause(implication);
-                }
-            }
-        }
+     * @param x       x coordinate of the detector
+     * @param y       y coordinate of the detector
+     * @param reading hypothetical reading of the detector: 0, 1, 2 or 3
+     * @return the positions (lineal index with offset 0, see coordToLineal)
+     * that would be excluded and are not excluded in the current state
+     * @throws TimeoutException if the solver exceeds its time limit
+     **/
+    public BitSet whatIf(int x, int y, int reading) throws TimeoutException {
+        return engine.whatIf(x, y, reading);
     }
 
-    /**Adds the implications between pirate saying treasure is above and locations
-     * were the trasure cannot be located.
+    /**
+     * Add the conclusions obtained in the previous step to the knowledge
+     * about the past. With the SAT engine, these are the clauses stored in
+     * the list futureToPast of the engine.
      *
-     * @param x detector x coord
-     * @param y detector y coord
      * @throws ContradictionException it must be included when adding clauses to a solver,
      *      * it prevents from inserting contradictory clauses in the formula.
-     */
-    private void pirateAboveImpl(int x, int y) throws ContradictionException {
-        for (int i = 1; i <= WorldDim; i++) {
-            for (int j = y; j >0; j--) {
-                VecInt implication = new VecInt();
-                implication.insertFirst(-(coordToLineal(x, y, pirateAboveOffset)));
-                implication.insertFirst(-(coordToLineal(i, j, TreasureFutureOffset)));
-                solver.addClause(implication);
-            }
-        }
+     **/
+    public void addLastFutureClausesToPastClauses() throws ContradictionException {
+        engine.addLastFutureClausesToPastClauses();
     }
 
-    /**Adds the implications between detector cases 1,2,3 and the locations where we are sure
-     * the treasure can not be.
+    /**
+     * Ask the inference engine for the positions where it is a logical
+     * consequence that the Treasure is NOT, and mark them in the state of
+     * the agent. Positions excluded in previous steps stay excluded. With a
+     * step budget, the positions not checked in time stay candidates and
+     * are left pending.
      *
-     * @param x detector x coord
-     * @param y detector y coord
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     *      * it prevents from inserting contradictory clauses in the formula.
-     */
-    private void pirateBelowImpl(int x, int y) throws ContradictionException {
-        for (int i = 1; i <= WorldDim; i++) {
-            for (int j = y; j <= WorldDim; j++) {
-                VecInt implication = new VecInt();
-                implication.insertFirst(-(coordToLineal(x, y, pirateBelowOffset)));
-                implication.insertFirst(-(coordToLineal(i, j, TreasureFutureOffset)));
-                solver.addClause(implication);
-            }
+     * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+     *                          exceeds the timeout.
+     **/
+    public void performInferenceQuestions() throws TimeoutException {
+        tfstate.excludeAll(engine.performInferenceQuestions());
+        int numPending = getNumPending();
+        if (numPending > 0) {
+            events.log(EventLevel.INFO, "FINDER => Step budget used, " + numPending
+                    + " positions pending");
         }
     }
 
     /**
-     *It add a clause to the solver that implies that the treasure must be
-     * in a position considering past information.
-     *
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     * it prevents from inserting contradictory clauses in the formula.
+     * Check the positions left pending by the last steps, while the agent
+     * is idle. The positions excluded are marked in the state of the agent,
+     * and become part of its knowledge about the past in the next step.
      *
+     * @param budgetMillis time available, in milliseconds
+     * @return the number of positions excluded
+     * @throws TimeoutException if the solver exceeds its time limit
      **/
-    private void pastState() throws ContradictionException {
-        // VecInt its the vector that use the solver for primitive integers.
-        VecInt pastInf = new VecInt();
-        TreasurePastOffset = actualLiteral;
-        for (int i = 0; i < WorldLinealDim; i++) {
-            pastInf.insertFirst(actualLiteral);
-            actualLiteral+=1;
+    public int resumePendingInference(long budgetMillis) throws TimeoutException {
+        if (getNumPending() == 0) {
+            return 0;
         }
-        solver.addClause(pastInf);
+        engine.setDeadline(System.nanoTime() + budgetMillis * 1000000L);
+        BitSet excluded = engine.resumePending();
+        tfstate.excludeAll(excluded);
+        return excluded.cardinality();
     }
 
     /**
-     *It add a clause to the solver that implies that the treasure must be
-     * in a position considering future information.
-     *
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     * it prevents from inserting contradictory clauses in the formula.
-     *
+     * @return the number of positions that the inference could not check
+     * within the step budget, and are candidates until they are checked
      **/
-    private void futureState() throws ContradictionException {
-        VecInt futureInf = new VecInt();
-        TreasureFutureOffset = actualLiteral;
-        for (int i = 0; i < WorldLinealDim; i++) {
-            futureInf.insertFirst(actualLiteral);
-            actualLiteral+=1;
-        }
-        solver.addClause(futureInf);
+    public int getNumPending() {
+        return engine.getPending().cardinality();
     }
 
-    /**Adds the clauses which say that if we have concluded that the Treasure was not in an specific
-     * location, we have to keep these conclusions and those will still be true in the future
+    /**
+     * Build again the initial logical formula of the agent. Only agents that
+     * use the SAT engine have a formula.
+     *
+     * @return returns the solver object where the formula has been stored
      *
      * @throws ContradictionException it must be included when adding clauses to a solver,
-     * it prevents from inserting contradictory clauses in the formula.
-     */
-
-    private void pastTofutureState() throws  ContradictionException{
-        for (int i = 0; i < WorldLinealDim ; i++) {
-            VecInt clause = new VecInt();
-            clause.insertFirst(i+1);
-            clause.insertFirst(-(TreasureFutureOffset+i));
-            solver.addClause(clause);
+     *      * it prevents from inserting contradictory clauses in the formula.
+     **/
+    public ISolver buildGamma() throws ContradictionException {
+        if (!(engine instanceof SatInferenceEngine)) {
+            throw new UnsupportedOperationException("The " + config.engine + " engine has no formula");
         }
+        return ((SatInferenceEngine) engine).buildGamma();
     }
 
-    /**Adds the clauses which say that the Treasure can't be found at (1,1) position.
-     * We need to add one clause for the future and one for the past.
+    /**
+     * Returns the inference engine of the agent.
      *
-     * @throws ContradictionException it must be included when adding clauses to a solver,
-     * it prevents from inserting contradictory clauses in the formula.
-     */
-    private void notInInitialPos() throws ContradictionException{
-        VecInt clause = new VecInt();
-        clause.insertFirst(-TreasureFutureOffset);
-        solver.addClause(clause);
-        clause.clear();
-        clause.insertFirst(-TreasurePastOffset);
-        solver.addClause(clause);
+     * @return the engine the agent delegates its reasoning to
+     **/
+    public InferenceEngine getEngine() {
+        return engine;
     }
 
     /**
@@ -0,0 +1,153 @@
+package apryraz.tworld;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the steps performed by a TreasureFinder agent. They can be
+ * pulled with getLastStep() and getTotals(), or published as an MBean in
+ * the platform MBean server with register(). The agent is the only writer;
+ * readers in other threads always see complete StepMetrics objects.
+ **/
+public class TreasureFinderMetrics implements TreasureFinderMetricsMBean {
+    private volatile StepMetrics lastStep = new StepMetrics();
+    private volatile StepMetrics totals = new StepMetrics();
+    /**
+     * Name of the MBean while it is registered, else null
+     **/
+    private ObjectName registeredName;
+
+    /**
+     * Record the metrics of a step, which must not be modified afterwards
+     **/
+    void record(StepMetrics step) {
+        totals = totals.plus(step);
+        lastStep = step;
+    }
+
+    /**
+     * @return the metrics of the last step performed
+     **/
+    public StepMetrics getLastStep() {
+        return lastStep;
+    }
+
+    /**
+     * @return the sums of the metrics of all the steps performed
+     **/
+    public StepMetrics getTotals() {
+        return totals;
+    }
+
+    /**
+     * Publish these metrics as an MBean of the platform MBean server. An
+     * MBean registered before with the same name is replaced, so a new
+     * agent can take the name of the previous one.
+     *
+     * @param name object name of the MBean, such as
+     *             apryraz.tworld:type=TreasureFinder,name=agent1
+     * @throws JMException if the name is not valid or the MBean can not be registered
+     **/
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = new ObjectName(name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (InstanceNotFoundException ex) {
+            // No previous MBean with this name
+        }
+        server.registerMBean(this, objectName);
+        registeredName = objectName;
+    }
+
+    /**
+     * Remove the MBean from the platform MBean server, if it was registered
+     **/
+    public synchronized void unregister() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException ex) {
+                // Already replaced or removed
+            }
+            registeredName = null;
+        }
+    }
+
+    public long getSteps() {
+        return totals.steps;
+    }
+
+    public long getLastStepNanos() {
+        return lastStep.getTotalNanos();
+    }
+
+    public long getLastPastClausesNanos() {
+        return lastStep.phaseNanos[StepMetrics.PAST_CLAUSES];
+    }
+
+    public long getLastMoveAndSenseNanos() {
+        return lastStep.phaseNanos[StepMetrics.MOVE_AND_SENSE];
+    }
+
+    public long getLastEvidenceNanos() {
+        return lastStep.phaseNanos[StepMetrics.EVIDENCE];
+    }
+
+    public long getLastInferenceNanos() {
+        return lastStep.phaseNanos[StepMetrics.INFERENCE];
+    }
+
+    public long getLastSatCalls() {
+        return lastStep.satCalls;
+    }
+
+    public long getLastConflicts() {
+        return lastStep.conflicts;
+    }
+
+    public long getLastPropagations() {
+        return lastStep.propagations;
+    }
+
+    public long getLastLearnedClauses() {
+        return lastStep.learnedClauses;
+    }
+
+    public int getNumConstraints() {
+        return lastStep.numConstraints;
+    }
+
+    public int getNumCandidates() {
+        return lastStep.numCandidates;
+    }
+
+    public long getTotalNanos() {
+        return totals.getTotalNanos();
+    }
+
+    public long getTotalInferenceNanos() {
+        return totals.phaseNanos[StepMetrics.INFERENCE];
+    }
+
+    public long getTotalSatCalls() {
+        return totals.satCalls;
+    }
+
+    public long getTotalConflicts() {
+        return totals.conflicts;
+    }
+
+    public long getTotalPropagations() {
+        return totals.propagations;
+    }
+
+    public long getTotalLearnedClauses() {
+        return totals.learnedClauses;
+    }
+}
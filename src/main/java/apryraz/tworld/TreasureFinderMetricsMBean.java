@@ -0,0 +1,45 @@
+package apryraz.tworld;
+
+/**
+ * JMX view of the metrics of a TreasureFinder agent, see TreasureFinderMetrics.
+ * Times are in nanoseconds. The Last attributes are those of the last step
+ * performed, and the Total attributes the sums over all the steps.
+ **/
+public interface TreasureFinderMetricsMBean {
+
+    long getSteps();
+
+    long getLastStepNanos();
+
+    long getLastPastClausesNanos();
+
+    long getLastMoveAndSenseNanos();
+
+    long getLastEvidenceNanos();
+
+    long getLastInferenceNanos();
+
+    long getLastSatCalls();
+
+    long getLastConflicts();
+
+    long getLastPropagations();
+
+    long getLastLearnedClauses();
+
+    int getNumConstraints();
+
+    int getNumCandidates();
+
+    long getTotalNanos();
+
+    long getTotalInferenceNanos();
+
+    long getTotalSatCalls();
+
+    long getTotalConflicts();
+
+    long getTotalPropagations();
+
+    long getTotalLearnedClauses();
+}
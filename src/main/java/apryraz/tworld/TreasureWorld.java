@@ -1,7 +1,11 @@
 package apryraz.tworld;
 
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 
 import org.sat4j.specs.*;
 import org.sat4j.minisat.*;
@@ -17,7 +21,10 @@ public class TreasureWorld {
     /**
      * This function should execute the sequence of steps stored in the file fileSteps,
      * but only up to numSteps steps. Each step must be executed with function
-     * runNextStep() of the TreasureFinder agent.
+     * runNextStep() of the TreasureFinder agent. It stops as soon as the agent
+     * knows where the Treasure is. With a checkpoint file in the options of
+     * the agent, the agent continues from it when it exists, and it is
+     * written again after every step.
      *
      * @param wDim        the dimension of world
      * @param tX          x coordinate of treasure position
@@ -29,9 +36,23 @@ public class TreasureWorld {
     public static void runStepsSequence(int wDim, int tX, int tY,
                                         int numSteps, String fileSteps, String filePirates) throws
             IOException, ContradictionException, TimeoutException {
+        runStepsSequence(wDim, tX, tY, numSteps, fileSteps, filePirates, new TFConfig());
+    }
+
+    /**
+     * Same as the previous function, but with an agent built with the
+     * options given in config.
+     *
+     * @param config options of the TreasureFinder agent
+     **/
+    public static void runStepsSequence(int wDim, int tX, int tY,
+                                        int numSteps, String fileSteps, String filePirates,
+                                        TFConfig config) throws
+            IOException, ContradictionException, TimeoutException {
         // Make instances of TreasureFinder agent and environment object classes
-        TreasureFinder TAgent = new TreasureFinder(wDim);
-        TreasureWorldEnv EnvAgent = new TreasureWorldEnv(wDim, tX, tY, filePirates);
+        TreasureFinder TAgent = new TreasureFinder(wDim, config);
+        TreasureWorldEnv EnvAgent = new TreasureWorldEnv(wDim, tX, tY, filePirates,
+                config.getEventSink());
 
         // Set environment object, and load list of pirate positions
         TAgent.setEnvironment(EnvAgent);
@@ -39,10 +60,32 @@ public class TreasureWorld {
         // load list of steps into the Finder Agent
         TAgent.loadListOfSteps(numSteps, fileSteps);
 
-        // Execute sequence of steps with the Agent
-        for (int step = 0; step < numSteps; step++) {
-            TAgent.runNextStep();
+        File checkpoint = config.getCheckpointFile();
+        if (checkpoint != null && checkpoint.exists()) {
+            TAgent.restore(checkpoint);
         }
+
+        // Execute sequence of steps with the Agent, until the Treasure is located
+        try {
+            for (int step = TAgent.idNextStep; step < numSteps && !TAgent.isSolved(); step++) {
+                TAgent.runNextStep();
+                if (checkpoint != null) {
+                    TAgent.checkpoint(checkpoint);
+                }
+            }
+        } finally {
+            TAgent.closeListOfSteps();
+        }
+        Position treasure = TAgent.getTreasurePosition();
+        if (treasure != null) {
+            config.getEventSink().log(EventLevel.INFO, "FINDER => Treasure located at : ("
+                    + treasure.x + "," + treasure.y + ")");
+        }
+        if (config.getEventSink().isEnabled(EventLevel.INFO)) {
+            config.getEventSink().log(EventLevel.INFO, "FINDER => Metrics : "
+                    + TAgent.getMetrics().getTotals());
+        }
+        config.getEventSink().flush();
     }
 
     /**
@@ -53,6 +96,13 @@ public class TreasureWorld {
      * arg[3] = num of steps to perform
      * arg[4] = file name with sequence of steps to perform
      * arg[5] = file name with list of pirate positions
+     *
+     * The options of the agent are read from the system properties, see
+     * TFConfig.fromSystemProperties(); for example -Dtworld.engine=bitboard
+     * or -Dtworld.events=silent
+     *
+     * With -Dtworld.exportDimacs=file, the initial formula of the agent is
+     * also written to that file in DIMACS format.
      **/
     public static void main(String[] args) throws
             IOException, ContradictionException, TimeoutException {
@@ -65,7 +115,21 @@ public class TreasureWorld {
             int numSteps = Integer.parseInt(args[3]);
             String fileSteps = args[4];
             String filePirates = args[5];
-            runStepsSequence(wDim,tX,tY,numSteps,fileSteps,filePirates);
+            TFConfig config = TFConfig.fromSystemProperties();
+            try {
+                String dimacs = System.getProperty("tworld.exportDimacs");
+                if (dimacs != null) {
+                    Writer out = new BufferedWriter(new FileWriter(dimacs));
+                    try {
+                        SatInferenceEngine.exportDimacs(wDim, config, out);
+                    } finally {
+                        out.close();
+                    }
+                }
+                runStepsSequence(wDim,tX,tY,numSteps,fileSteps,filePirates, config);
+            } finally {
+                config.getEventSink().close();
+            }
         }
     }
 }
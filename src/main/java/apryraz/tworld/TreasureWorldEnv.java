@@ -1,18 +1,38 @@
 
 package apryraz.tworld;
 
-import java.io.File;
+import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Scanner;
-
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * The environment object of the Treasure World, that answers the messages
+ * of the agents. It is not modified once built, so a single environment can
+ * answer the messages of many agents running in different threads, as long
+ * as its event sink is thread safe and no more pirates are loaded.
+ **/
 public class TreasureWorldEnv {
     /**
      * X,Y position of Treasure and world dimension
      **/
-    int TreasureX, TreasureY, WorldDim;
-    ArrayList<String> pirateLoc = new ArrayList<>();
+    final int TreasureX, TreasureY, WorldDim;
+    /**
+     * Positions with a pirate, indexed by (x-1) * WorldDim + (y-1).
+     * Only modified by the constructors and loadPiratesLocations.
+     **/
+    final BitSet pirates;
+    /**
+     * Reading of the metal detector at every position, with the same index
+     **/
+    final byte[] readings;
+    /**
+     * Where the messages received and the errors are reported
+     **/
+    final EventSink events;
 
 
     /**
@@ -24,35 +44,130 @@ public class TreasureWorldEnv {
      * @param piratesFile File with list of pirates locations<
      **/
     public TreasureWorldEnv(int dim, int tx, int ty, String piratesFile) {
+        this(dim, tx, ty, piratesFile, ConsoleEventSink.STDOUT);
+    }
+
+    /**
+     * Same as the previous constructor, but reporting to the given sink
+     *
+     * @param events where the messages received and the errors are reported
+     **/
+    public TreasureWorldEnv(int dim, int tx, int ty, String piratesFile, EventSink events) {
 
+        this.events = events;
         TreasureX = tx;
         TreasureY = ty;
         WorldDim = dim;
+        pirates = new BitSet(dim * dim);
         loadPiratesLocations(piratesFile);
+        readings = computeReadings();
     }
 
     /**
-     * Load the list of pirates locations
+     * Same as the previous constructor, but with the pirate locations given
+     * as positions instead of a file. Locations outside the world are ignored.
+     *
+     * @param pirates locations of the pirates
+     **/
+    public TreasureWorldEnv(int dim, int tx, int ty, Collection<Position> pirates,
+                            EventSink events) {
+
+        this.events = events;
+        TreasureX = tx;
+        TreasureY = ty;
+        WorldDim = dim;
+        this.pirates = new BitSet(dim * dim);
+        for (Position p : pirates) {
+            if (withinLimits(p.x, p.y)) {
+                this.pirates.set(lineal(p.x, p.y));
+            }
+        }
+        readings = computeReadings();
+    }
+
+    /**
+     * Precompute the reading of the metal detector at every position
+     **/
+    private byte[] computeReadings() {
+        DistanceTable distances = DistanceTable.forDim(WorldDim);
+        byte[] readings = new byte[WorldDim * WorldDim];
+        for (int x = 1; x <= WorldDim; x++) {
+            for (int y = 1; y <= WorldDim; y++) {
+                readings[lineal(x, y)] = (byte) distances.reading(TreasureX - x, TreasureY - y);
+            }
+        }
+        return readings;
+    }
+
+    private int lineal(int x, int y) {
+        return (x - 1) * WorldDim + (y - 1);
+    }
+
+    /**
+     * Load the list of pirates locations, adding them to the ones already
+     * known. Call it before the environment is shared with other threads.
      *
      * @param: name of the file that should contain a
-     * set of pirate locations in a single line.
+     * set of pirate locations x,y separated by blanks.
      **/
     public void loadPiratesLocations(String piratesFile) {
         try {
-            File myObj = new File(piratesFile);
-            Scanner myReader = new Scanner(myObj);
-            while (myReader.hasNextLine()) {
-                String data = myReader.nextLine();
-                String[] pirates = data.split(" ");
-                Collections.addAll(pirateLoc,pirates);
+            BufferedReader br = new BufferedReader(new FileReader(piratesFile));
+            try {
+                readPirates(br);
+            } finally {
+                br.close();
             }
-            myReader.close();
         } catch (FileNotFoundException e) {
-            System.out.println("Error opening Pirates file");
-            e.printStackTrace();
+            events.log(EventLevel.ERROR, "Error opening Pirates file: " + e);
+        } catch (IOException e) {
+            events.log(EventLevel.ERROR, "Error reading Pirates file: " + e);
         }
     }
 
+    /**
+     * Read pirate locations x,y separated by blanks, character by character.
+     * Malformed locations and locations outside the world are ignored, since
+     * no agent can ever move there.
+     *
+     * @param reader the source of the locations
+     **/
+    private void readPirates(Reader reader) throws IOException {
+        int x = 0, y = 0;
+        // 0: reading x, 1: reading y, 2: skipping a malformed location
+        int field = 0;
+        boolean digits = false;
+        int c;
+        do {
+            c = reader.read();
+            if (c == -1 || Character.isWhitespace(c)) {
+                if (field == 1 && digits && withinLimits(x, y)) {
+                    pirates.set(lineal(x, y));
+                }
+                x = 0;
+                y = 0;
+                field = 0;
+                digits = false;
+            } else if (field == 2) {
+                continue;
+            } else if (c >= '0' && c <= '9') {
+                // Once above WorldDim a coordinate stays out of the world,
+                // so it can stop growing there
+                if (field == 0 && x <= WorldDim) {
+                    x = x * 10 + (c - '0');
+                } else if (field == 1 && y <= WorldDim) {
+                    y = y * 10 + (c - '0');
+                }
+                digits = true;
+            } else if (c == ',' && field == 0 && digits) {
+                field = 1;
+                digits = false;
+            } else {
+                field = 2;
+            }
+        } while (c != -1);
+    }
+
 
     /**
      * Process a message received by the TFinder agent,
@@ -63,33 +178,27 @@ public class TreasureWorldEnv {
      * @return a msg with the answer to return to the agent
      **/
     public AMessage acceptMessage(AMessage msg) {
-        AMessage ans = new AMessage("voidmsg", "", "", "");
-
-        msg.showMessage();
-        if (msg.getComp(0).equals("moveto")) {
-            int nx = Integer.parseInt(msg.getComp(1));
-            int ny = Integer.parseInt(msg.getComp(2));
-
-            if (withinLimits(nx, ny)) {
-                int pirate = isPirateInMyCell(nx, ny);
-
-                ans = new AMessage("movedto", msg.getComp(1), msg.getComp(2),
-                        (new Integer(pirate)).toString());
-            } else
-                ans = new AMessage("notmovedto", msg.getComp(1), msg.getComp(2), "");
-
-        } else {
-            if(msg.getComp(0).equals("detectsat")){
-                int nx = Integer.parseInt(msg.getComp(1));
-                int ny = Integer.parseInt(msg.getComp(2));
-                String detectorRange = metalSensorReading(nx,ny);
-                ans = new AMessage(detectorRange, msg.getComp(1), msg.getComp(2),"");
-            }
-            if(msg.getComp(0).equals("treasureup")){
-                int ny = Integer.parseInt(msg.getComp(2));
-                String isup = IsTreasureUp(ny);
-                ans = new AMessage(isup, msg.getComp(1), msg.getComp(2),"");
-            }
+        AMessage ans;
+
+        msg.showMessage(events);
+        int nx = msg.getX();
+        int ny = msg.getY();
+        switch (msg.getType()) {
+            case MOVETO:
+                if (withinLimits(nx, ny)) {
+                    ans = AMessage.movedTo(nx, ny, isPirateInMyCell(nx, ny));
+                } else {
+                    ans = AMessage.notMovedTo(nx, ny);
+                }
+                break;
+            case DETECTSAT:
+                ans = AMessage.detected(metalSensorReading(nx, ny), nx, ny);
+                break;
+            case TREASUREUP:
+                ans = AMessage.pirateAnswer(IsTreasureUp(ny), nx, ny);
+                break;
+            default:
+                ans = new AMessage(MessageType.VOIDMSG, 0, 0, 0);
         }
         return ans;
 
@@ -103,12 +212,7 @@ public class TreasureWorldEnv {
      * @return 1  if (x,y) contains a pirate, 0 otherwise
      **/
     public int isPirateInMyCell(int x, int y) {
-        String coord = x + "," + y;
-
-        for (String p: pirateLoc) {
-            if(p.equals(coord)){return 1;}
-        }
-        return 0;
+        return withinLimits(x, y) && pirates.get(lineal(x, y)) ? 1 : 0;
     }
 
 
@@ -124,27 +228,15 @@ public class TreasureWorldEnv {
         return (x >= 1 && x <= WorldDim && y >= 1 && y <= WorldDim);
     }
 
-    private String IsTreasureUp(int y){
-        if(TreasureY > y){
-            return "yes";
-        }
-            return  "no";
+    private boolean IsTreasureUp(int y){
+        return TreasureY > y;
     }
 
-    private String metalSensorReading(int x, int y){
-        if(x == TreasureX && y == TreasureY){
-            return "1";
-        }else if(pitagor(Math.abs(TreasureX-x),Math.abs(TreasureY-y)) == 1){
-            return "2";
-        }else if(pitagor(Math.abs(TreasureX-x),Math.abs(TreasureY-y)) == 2){
-            return "3";
-        }else{
-            return "0";
+    private int metalSensorReading(int x, int y){
+        if (withinLimits(x, y)) {
+            return readings[lineal(x, y)];
         }
-    }
-    public static double pitagor (int x , int y){
-        double c = Math.sqrt((x*x)+(y*y));
-        return Math.floor(c);
+        return DistanceTable.forDim(WorldDim).reading(TreasureX - x, TreasureY - y);
     }
 
 }
@@ -1,14 +1,25 @@
 package apryraz.tworld;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import static java.lang.System.exit;
 
 import org.sat4j.core.VecInt;
@@ -125,10 +136,23 @@ public class TreasureFinderTest {
                                   int numSteps, String fileSteps, String fileStates,
                                   String filePirates  ) 
        throws   IOException,  ContradictionException, TimeoutException {
+      testMakeSeqOfSteps(wDim, tX, tY, numSteps, fileSteps, fileStates, filePirates, new TFConfig());
+  }
+
+  /**
+  *   Same as the previous function, but with an agent built with the
+  *   options given in config.
+  *
+  *   @param config options of the TreasureFinder agent
+  **/
+  public void testMakeSeqOfSteps( int wDim, int tX, int tY,
+                                  int numSteps, String fileSteps, String fileStates,
+                                  String filePirates, TFConfig config )
+       throws   IOException,  ContradictionException, TimeoutException {
       // You should make TreasureFinder and TreasureWorldEnv objects to  test.
       // Then load sequence of target states, load sequence of steps into the bAgent
       // and then test the sequence calling testMakeSimpleStep once for each step.
-     TreasureFinder TAgent = new TreasureFinder(wDim);
+     TreasureFinder TAgent = new TreasureFinder(wDim, config);
      // load information about the World into the EnvAgent
      TreasureWorldEnv EnvAgent = new TreasureWorldEnv(wDim,tX,tY,filePirates);
      // Load list of states
@@ -140,7 +164,11 @@ public class TreasureFinderTest {
 
      // Test here the sequence of steps and check the resulting states with the
      // ones in seqOfStates
-      for (int i = 0; i < numSteps; i++) { testMakeSimpleStep(TAgent,seqOfStates.get(i)); }
+      try {
+          for (int i = 0; i < numSteps; i++) { testMakeSimpleStep(TAgent,seqOfStates.get(i)); }
+      } finally {
+          TAgent.closeListOfSteps();
+      }
   }
 
     /**
@@ -249,4 +277,835 @@ public class TreasureFinderTest {
         testMakeSeqOfSteps(  8, 3, 7, 6, "tests/steps4.txt", "tests/states4.txt", "tests/pirates4.txt"  );
     }
 
+    /**
+     * Runs the four configurations above with an agent built with the
+     * options given in config
+     *
+     * @param config options of the TreasureFinder agent
+     * @throws IOException            Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *                           it prevents from inserting contradictory clauses in the formula.
+     * @throws TimeoutException       needed for solver.isSatisfiable method, its thrown if
+     *                                 exceeds the timeout.
+     **/
+    public void runFourScenarios(TFConfig config)   throws
+            IOException,  ContradictionException, TimeoutException {
+        testMakeSeqOfSteps(  4, 3, 3, 5, "tests/steps1.txt", "tests/states1.txt", "tests/pirates1.txt", config  );
+        testMakeSeqOfSteps(  6, 4, 4, 5, "tests/steps2.txt", "tests/states2.txt", "tests/pirates2.txt", config  );
+        testMakeSeqOfSteps(  7, 5, 4, 7, "tests/steps3.txt", "tests/states3.txt", "tests/pirates3.txt", config  );
+        testMakeSeqOfSteps(  8, 3, 7, 6, "tests/steps4.txt", "tests/states4.txt", "tests/pirates4.txt", config  );
+    }
+
+    /**
+     * Runs the four configurations above with an agent that encodes the
+     * detector and pirate implications of Gamma on demand. The resulting
+     * states must be the same as with the eager encoding.
+     *
+     * @throws IOException            Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *                           it prevents from inserting contradictory clauses in the formula.
+     * @throws TimeoutException       needed for solver.isSatisfiable method, its thrown if
+     *                                 exceeds the timeout.
+     **/
+    @Test public void TWorldLazyGammaTest()   throws
+            IOException,  ContradictionException, TimeoutException {
+        TFConfig config = new TFConfig().setLazyGamma(true);
+        runFourScenarios(config);
+    }
+
+    /**
+     * Runs the four configurations above with the ladder encoding of the
+     * pirate answers, with eager and lazy Gamma, and checks that the ladder
+     * makes the eager Gamma smaller.
+     *
+     * @throws IOException            Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *                           it prevents from inserting contradictory clauses in the formula.
+     * @throws TimeoutException       needed for solver.isSatisfiable method, its thrown if
+     *                                 exceeds the timeout.
+     **/
+    @Test public void TWorldPirateLadderTest()   throws
+            IOException,  ContradictionException, TimeoutException {
+        for (boolean lazy : new boolean[]{false, true}) {
+            TFConfig config = new TFConfig().setPirateLadder(true).setLazyGamma(lazy);
+            runFourScenarios(config);
+        }
+        GammaTemplate ladder = GammaTemplate.forDim(8, new TFConfig().setPirateLadder(true));
+        GammaTemplate original = GammaTemplate.forDim(8, new TFConfig());
+        assertEquals(8 * 64 + 8, ladder.numVariables);
+        // Without the ladder, every pirate variable at row y has one clause per
+        // position at or above (at or below) row y: N^3 (N+1) clauses in all
+        int pirateClauses = 8 * 8 * 8 * 9;
+        // With the ladder: one order clause L_y -> L_{y+1} per ladder variable
+        // but the last, two clauses per position linking it to its row (one
+        // in the first row) and one clause per pirate variable
+        int ladderClauses = 7 + (64 + 56) + 2 * 64;
+        assertEquals(pirateClauses - ladderClauses, original.numClauses - ladder.numClauses);
+    }
+
+    /**
+     * Runs the four configurations above with both backbone inference modes,
+     * and with three solver replicas checking the cells in parallel.
+     * The resulting states must be the same as with one query per cell.
+     *
+     * @throws IOException            Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *                           it prevents from inserting contradictory clauses in the formula.
+     * @throws TimeoutException       needed for solver.isSatisfiable method, its thrown if
+     *                                 exceeds the timeout.
+     **/
+    @Test public void TWorldInferenceModesTest()   throws
+            IOException,  ContradictionException, TimeoutException {
+        for (InferenceMode mode : new InferenceMode[] { InferenceMode.BACKBONE_ASSUMPTIONS,
+                                                        InferenceMode.BACKBONE_BLOCKING,
+                                                        InferenceMode.PARALLEL }) {
+            TFConfig config = new TFConfig().setInferenceMode(mode).setParallelism(3);
+            runFourScenarios(config);
+        }
+    }
+
+    /**
+     * Runs the four configurations above with the light, Glucose and
+     * portfolio SAT solvers, and the first one with an external solver (the
+     * Sat4j launcher run in its own JVM). The resulting states must be the
+     * same as with the default solver. An external solver that is not
+     * installed is replaced by the default one.
+     *
+     * @throws IOException            Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *                           it prevents from inserting contradictory clauses in the formula.
+     * @throws TimeoutException       needed for solver.isSatisfiable method, its thrown if
+     *                                 exceeds the timeout.
+     **/
+    @Test public void TWorldSolverBackendsTest()   throws
+            IOException,  ContradictionException, TimeoutException {
+        for (SolverBackend backend : new SolverBackend[] { SolverBackend.LIGHT,
+                                                           SolverBackend.GLUCOSE,
+                                                           SolverBackend.PORTFOLIO }) {
+            TFConfig config = new TFConfig().setSolverBackend(backend).setSolverTimeout(60);
+            runFourScenarios(config);
+        }
+        TFConfig external = new TFConfig().setSolverBackend(SolverBackend.EXTERNAL)
+                .setExternalSolver(sat4jLauncher())
+                .setInferenceMode(InferenceMode.BACKBONE_ASSUMPTIONS)
+                .setEventSink(SilentEventSink.INSTANCE);
+        testMakeSeqOfSteps(  4, 3, 3, 5, "tests/steps1.txt", "tests/states1.txt", "tests/pirates1.txt", external  );
+
+        TFConfig missing = new TFConfig().setSolverBackend(SolverBackend.EXTERNAL)
+                .setExternalSolver("no-such-sat-solver -q")
+                .setEventSink(SilentEventSink.INSTANCE);
+        Assert.assertFalse(ExternalSolver.isInstalled(missing.getExternalSolver()));
+        testMakeSeqOfSteps(  4, 3, 3, 5, "tests/steps1.txt", "tests/states1.txt", "tests/pirates1.txt", missing  );
+    }
+
+    /**
+     * Checks the answers, models and assumptions of an external solver, and
+     * the removal of a clause, on the formula of testSolver.
+     *
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *                           it prevents from inserting contradictory clauses in the formula.
+     * @throws TimeoutException      needed for solver.isSatisfiable method, its thrown if
+     *                               exceeds the timeout.
+     **/
+    @Test public void testExternalSolver()   throws ContradictionException, TimeoutException {
+        ISolver solver = new ExternalSolver(sat4jLauncher().split(" "));
+        solver.newVar(2);
+        solver.setTimeout(60);
+        solver.addClause(new VecInt(new int[]{1, 2}));
+        solver.addClause(new VecInt(new int[]{-1, -2}));
+        IConstr clause3 = solver.addClause(new VecInt(new int[]{-1, 2}));
+        Assert.assertTrue(solver.isSatisfiable());
+        Assert.assertFalse(solver.model(1));
+        Assert.assertTrue(solver.model(2));
+        Assert.assertFalse(solver.isSatisfiable(new VecInt(new int[]{1})));
+
+        IConstr clause4 = solver.addClause(new VecInt(new int[]{1, -2}));
+        Assert.assertFalse(solver.isSatisfiable());
+        solver.removeConstr(clause3);
+        Assert.assertTrue(solver.isSatisfiable());
+        Assert.assertTrue(solver.model(1));
+        solver.removeConstr(clause4);
+        Assert.assertTrue(solver.isSatisfiable(new VecInt(new int[]{-2})));
+        Assert.assertTrue(solver.model(1));
+    }
+
+    /**
+     * @return command that runs the Sat4j launcher of the classpath in a new
+     * JVM, which answers like the solvers of the SAT competitions
+     **/
+    private static String sat4jLauncher() {
+        String jar = new File(ISolver.class.getProtectionDomain().getCodeSource()
+                .getLocation().getPath()).getPath();
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java -cp " + jar + " org.sat4j.BasicLauncher";
+    }
+
+    /**
+     * Checks that the conclusions stored in futureToPast after every step
+     * are only the new ones: over the whole sequence every excluded position
+     * appears exactly once, and the total is the number of X in the state.
+     *
+     * @throws IOException            Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *                           it prevents from inserting contradictory clauses in the formula.
+     * @throws TimeoutException       needed for solver.isSatisfiable method, its thrown if
+     *                                 exceeds the timeout.
+     **/
+    @Test public void TWorldOnlyNewConclusionsTest()   throws
+            IOException,  ContradictionException, TimeoutException {
+        TreasureFinder TAgent = new TreasureFinder(8);
+        TAgent.setEnvironment(new TreasureWorldEnv(8, 3, 7, "tests/pirates4.txt"));
+        TAgent.loadListOfSteps(6, "tests/steps4.txt");
+
+        java.util.BitSet seen = new java.util.BitSet();
+        for (int step = 0; step < 6; step++) {
+            TAgent.runNextStep();
+            for (VecInt past : ((SatInferenceEngine) TAgent.getEngine()).futureToPast) {
+                int lit = -past.get(0);
+                Assert.assertFalse(seen.get(lit));
+                seen.set(lit);
+            }
+        }
+        ArrayList<TFState> states = loadListOfTargetStates(8, 6, "tests/states4.txt");
+        assertEquals(8 * 8 - states.get(5).getNumCandidates(), seen.cardinality());
+    }
+
+    /**
+     * Runs the four configurations above with the bitboard inference engine.
+     * The resulting states must be the same as with the SAT engine.
+     *
+     * @throws IOException            Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException it must be included when adding clauses to a solver,
+     *                           it prevents from inserting contradictory clauses in the formula.
+     * @throws TimeoutException       needed for solver.isSatisfiable method, its thrown if
+     *                                 exceeds the timeout.
+     **/
+    @Test public void TWorldBitboardTest()   throws
+            IOException,  ContradictionException, TimeoutException {
+        TFConfig config = new TFConfig().setEngine(EngineType.BITBOARD);
+        runFourScenarios(config);
+    }
+
+    /**
+     * Checks that the shared distance table gives the same distances and
+     * detector readings as the original computations with Math.sqrt, that
+     * its ring masks agree with the readings, and that worlds of the same
+     * dimension share one table.
+     **/
+    @Test public void testDistanceTable() {
+        DistanceTable table = DistanceTable.forDim(9);
+        Assert.assertSame(table, DistanceTable.forDim(9));
+        for (int dx = -8; dx <= 8; dx++) {
+            for (int dy = -8; dy <= 8; dy++) {
+                int d = (int) Math.floor(Math.sqrt(dx * dx + dy * dy));
+                assertEquals(d, table.distance(dx, dy));
+                int reading = (dx == 0 && dy == 0) ? 1 : (d == 1) ? 2 : (d == 2) ? 3 : 0;
+                assertEquals(reading, table.reading(dx, dy));
+            }
+        }
+        // The rings of every reading, applied in place, split the world
+        for (int x = 1; x <= 9; x++) {
+            for (int y = 1; y <= 9; y++) {
+                for (int r = 0; r < 4; r++) {
+                    BitSet allowed = table.allowedBy(x, y, r);
+                    BitSet removed = new BitSet();
+                    removed.set(0, 81);
+                    table.removeAllowed(removed, x, y, r);
+                    for (int c = 0; c < 81; c++) {
+                        int reading = table.reading(c / 9 + 1 - x, c % 9 + 1 - y);
+                        assertEquals(reading == r, allowed.get(c));
+                        assertEquals(reading != r, removed.get(c));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the candidate queries of TFState: number of candidates,
+     * isCandidate, the candidate iterator, and equals/hashCode.
+     **/
+    @Test public void testStateCandidates() {
+        TFState state = new TFState(3);
+        assertEquals(9, state.getNumCandidates());
+        // Row 2, column 3 of the matrix is the position (3,2)
+        state.set(2, 3, "X");
+        state.set(2, 3, "X");
+        state.set(1, 1, "X");
+        assertEquals(7, state.getNumCandidates());
+        Assert.assertFalse(state.isCandidate(3, 2));
+        Assert.assertTrue(state.isCandidate(2, 3));
+        assertEquals("X", state.get(2, 3));
+
+        int count = 0;
+        for (Iterator<Position> it = state.candidates(); it.hasNext(); ) {
+            Position p = it.next();
+            Assert.assertTrue(state.isCandidate(p.x, p.y));
+            count++;
+        }
+        assertEquals(7, count);
+
+        TFState other = new TFState(3);
+        Assert.assertFalse(state.equals(other));
+        other.set(1, 1, "X");
+        other.set(2, 3, "X");
+        Assert.assertTrue(state.equals(other));
+        assertEquals(state.hashCode(), other.hashCode());
+        state.set(1, 1, "?");
+        assertEquals(8, state.getNumCandidates());
+    }
+
+    /**
+     * Checks the pirate locations and the detector readings answered by the
+     * environment of the third configuration: 7x7 world, Treasure at 5,4,
+     * pirates at 1,3 and 2,5.
+     **/
+    @Test public void testEnvironmentAnswers() {
+        TreasureWorldEnv env = new TreasureWorldEnv(7, 5, 4, "tests/pirates3.txt");
+        assertEquals(1, env.isPirateInMyCell(1, 3));
+        assertEquals(1, env.isPirateInMyCell(2, 5));
+        assertEquals(0, env.isPirateInMyCell(3, 1));
+        assertEquals(0, env.isPirateInMyCell(0, 3));
+
+        AMessage ans = env.acceptMessage(new AMessage("moveto", "2", "5", ""));
+        assertEquals("movedto", ans.getComp(0));
+        assertEquals("1", ans.getComp(3));
+        assertEquals("1", env.acceptMessage(new AMessage("detectsat", "5", "4", "")).getComp(0));
+        assertEquals("2", env.acceptMessage(new AMessage("detectsat", "4", "5", "")).getComp(0));
+        assertEquals("3", env.acceptMessage(new AMessage("detectsat", "3", "2", "")).getComp(0));
+        assertEquals("0", env.acceptMessage(new AMessage("detectsat", "1", "1", "")).getComp(0));
+        assertEquals("yes", env.acceptMessage(new AMessage("treasureup", "2", "3", "")).getComp(0));
+        assertEquals("no", env.acceptMessage(new AMessage("treasureup", "2", "4", "")).getComp(0));
+    }
+
+    /**
+     * Checks that typed messages and their String version describe the same
+     * message, in both directions.
+     **/
+    @Test public void testMessageConversions() {
+        AMessage moved = AMessage.movedTo(12, 3, 1);
+        assertEquals("movedto", moved.getComp(0));
+        assertEquals("12", moved.getComp(1));
+        assertEquals("3", moved.getComp(2));
+        assertEquals("1", moved.getComp(3));
+        assertEquals("2", AMessage.detected(2, 4, 5).getComp(0));
+        assertEquals("no", AMessage.pirateAnswer(false, 4, 5).getComp(0));
+        assertEquals("", new AMessage(MessageType.VOIDMSG, 0, 0, 0).getComp(1));
+
+        AMessage reading = new AMessage("3", "6", "7", "");
+        assertEquals(MessageType.DETECTED, reading.getType());
+        assertEquals(3, reading.getValue());
+        assertEquals(6, reading.getX());
+        assertEquals(7, reading.getY());
+        AMessage answer = new AMessage("yes", "2", "2", "");
+        assertEquals(MessageType.PIRATEANSWER, answer.getType());
+        assertEquals(1, answer.getValue());
+        assertEquals(MessageType.UNKNOWN, new AMessage("hello", "", "", "").getType());
+    }
+
+    /**
+     * Checks that the agent reaches the same states with a silent sink and
+     * with a buffered sink, that the buffered sink only writes the events of
+     * the selected levels, and that closing it does not block the threads
+     * still reporting events.
+     **/
+    @Test public void testEventSinks()   throws
+            IOException,  ContradictionException, TimeoutException {
+        TFConfig silent = new TFConfig().setEventSink(SilentEventSink.INSTANCE);
+        testMakeSeqOfSteps(  7, 5, 4, 7, "tests/steps3.txt", "tests/states3.txt", "tests/pirates3.txt", silent  );
+
+        StringWriter out = new StringWriter();
+        BufferedEventSink buffered = new BufferedEventSink(out, EventLevel.INFO, 4);
+        TFConfig config = new TFConfig().setEventSink(buffered);
+        testMakeSeqOfSteps(  7, 5, 4, 7, "tests/steps3.txt", "tests/states3.txt", "tests/pirates3.txt", config  );
+        buffered.flush();
+        String text = out.toString();
+        Assert.assertTrue(text.contains("FINDER => moving to : (2,5)"));
+        Assert.assertTrue(text.contains("Detector returned: 0"));
+        Assert.assertFalse(text.contains("MESSAGE:"));
+        Assert.assertFalse(text.contains("Printing Treasure world matrix"));
+        buffered.close();
+        Assert.assertFalse(buffered.isEnabled(EventLevel.ERROR));
+
+        // Threads that log and flush while the sink is closed must not hang
+        for (int n = 0; n < 100; n++) {
+            final BufferedEventSink closing = new BufferedEventSink(new StringWriter(),
+                    EventLevel.INFO, 1);
+            Thread reporter = new Thread(new Runnable() {
+                public void run() {
+                    for (int k = 0; k < 50; k++) {
+                        closing.log(EventLevel.INFO, "event " + k);
+                        closing.flush();
+                    }
+                }
+            });
+            reporter.start();
+            closing.close();
+            try {
+                reporter.join(10000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            Assert.assertFalse(reporter.isAlive());
+        }
+    }
+
+    /**
+     * Runs the four scenarios of the tests from a manifest, and a set of
+     * generated scenarios on several threads, checking that the SAT agents
+     * reach the same final states as the bitboard agents.
+     **/
+    @Test public void testBatchRunner() throws Exception {
+        TFConfig config = new TFConfig().setEventSink(SilentEventSink.INSTANCE);
+        List<ScenarioResult> results = new BatchRunner(config, 2).run(
+                Scenario.readManifest("tests/batch.txt"));
+        assertEquals(4, results.size());
+        assertEquals(5, results.get(1).getStepsPerformed());
+        assertEquals(1, results.get(1).getState().getNumCandidates());
+        Assert.assertTrue(results.get(1).getState().isCandidate(4, 4));
+
+        List<Scenario> scenarios = Scenario.generate(11, 12, 5, 8, 3);
+        results = new BatchRunner(config, 3).run(scenarios);
+        BatchRunner bitboard = new BatchRunner(new TFConfig()
+                .setEngine(EngineType.BITBOARD).setEventSink(SilentEventSink.INSTANCE), 1);
+        for (int n = 0; n < scenarios.size(); n++) {
+            ScenarioResult result = results.get(n);
+            Assert.assertNull(result.getError());
+            Assert.assertTrue(result.getStepsPerformed() == 8
+                    || result.getState().getNumCandidates() == 1);
+            assertEquals(result.getStepsPerformed(), result.getStepLatency().getCount());
+            assertEquals(bitboard.runScenario(scenarios.get(n)).getState(), result.getState());
+        }
+    }
+
+    /**
+     * Runs a fleet of agents on one shared environment, on virtual threads
+     * when the JVM has them, and checks every agent against a bitboard
+     * agent that runs alone with the same steps.
+     **/
+    @Test public void testSharedEnvironment() throws Exception {
+        TreasureWorldEnv world = new TreasureWorldEnv(6, 4, 4, "tests/pirates2.txt",
+                SilentEventSink.INSTANCE);
+        List<Scenario> fleet = Scenario.generateOnWorld(world, 5, 40, 6);
+        TFConfig config = new TFConfig().setEventSink(SilentEventSink.INSTANCE);
+        List<ScenarioResult> results = BatchRunner.onVirtualThreads(config).run(fleet);
+        BatchRunner bitboard = new BatchRunner(new TFConfig()
+                .setEngine(EngineType.BITBOARD).setEventSink(SilentEventSink.INSTANCE), 1);
+        for (int n = 0; n < fleet.size(); n++) {
+            Assert.assertSame(world, fleet.get(n).newEnvironment(SilentEventSink.INSTANCE));
+            Assert.assertNull(results.get(n).getError());
+            assertEquals(bitboard.runScenario(fleet.get(n)).getState(), results.get(n).getState());
+        }
+    }
+
+    /**
+     * Checks that agents of the same dimension share one Gamma template, that
+     * their formula has the same clauses as the generated one, and that
+     * clearing the cache makes the next agent build a new template.
+     **/
+    @Test public void testGammaTemplate() throws ContradictionException {
+        TFConfig config = new TFConfig().setEventSink(SilentEventSink.INSTANCE);
+        GammaTemplate template = GammaTemplate.forDim(5, config);
+        Assert.assertSame(template, GammaTemplate.forDim(5, new TFConfig()));
+        Assert.assertNotSame(template, GammaTemplate.forDim(5, new TFConfig().setLazyGamma(true)));
+        SatInferenceEngine engine = new SatInferenceEngine(5, config);
+        assertEquals(template.numClauses, engine.solver.nConstraints());
+        assertEquals(template.numVariables, 8 * 25);
+        assertEquals(template.Detector0Offset, engine.Detector0Offset);
+        Assert.assertNull(GammaTemplate.forDim(64, config));
+        GammaTemplate.clearCache();
+        Assert.assertNotSame(template, GammaTemplate.forDim(5, config));
+    }
+
+    /**
+     * Checks that a Gamma template written to a cache file and mapped back
+     * has the same formula as the one generated in memory, and that a file
+     * of another dimension is not accepted.
+     **/
+    @Test public void testGammaCacheFile() throws Exception {
+        File dir = new File("target/gamma-cache-test");
+        File file = new File(dir, GammaTemplate.fileName(6, 0));
+        file.delete();
+        GammaTemplate mapped = GammaTemplate.generate(6, 0, file, SilentEventSink.INSTANCE);
+        Assert.assertTrue(file.isFile());
+        GammaTemplate heap = GammaTemplate.generate(6, 0, null, SilentEventSink.INSTANCE);
+        StringWriter fromFile = new StringWriter();
+        StringWriter fromHeap = new StringWriter();
+        GammaTemplate.load(file, 6, 0, SilentEventSink.INSTANCE).writeDimacs(fromFile);
+        heap.writeDimacs(fromHeap);
+        assertEquals(fromHeap.toString(), fromFile.toString());
+        Assert.assertTrue(fromFile.toString().contains("p cnf 288 " + heap.numClauses + "\n"));
+        assertEquals(heap.Detector3Offset, mapped.Detector3Offset);
+        Assert.assertNull(GammaTemplate.load(file, 5, 0, SilentEventSink.INSTANCE));
+
+        // A cache directory that cannot be created is reported as an error
+        final List<String> errors = new ArrayList<String>();
+        EventSink recorder = new EventSink() {
+            public boolean isEnabled(EventLevel level) { return true; }
+            public void log(EventLevel level, String text) {
+                if (level == EventLevel.ERROR) {
+                    errors.add(text);
+                }
+            }
+            public void flush() { }
+            public void close() { }
+        };
+        Assert.assertNull(GammaTemplate.generate(6, 0, new File(file, "nested.cnf"), recorder));
+        assertEquals(1, errors.size());
+        Assert.assertTrue(errors.get(0).contains("nested.cnf"));
+
+        TFConfig config = new TFConfig().setGammaCacheDir(dir)
+                .setEventSink(SilentEventSink.INSTANCE);
+        testMakeSeqOfSteps(  6, 4, 4, 5, "tests/steps2.txt", "tests/states2.txt", "tests/pirates2.txt", config  );
+    }
+
+    /**
+     * Asks hypothetical detector readings between the steps of the third
+     * configuration to SAT agents (eager and lazy Gamma) and to a bitboard
+     * agent. They must give the same exclusions, and the agents must still
+     * reach the expected states, so the questions do not change what they know.
+     **/
+    @Test public void testWhatIf()   throws
+            IOException,  ContradictionException, TimeoutException {
+        TFConfig quiet = new TFConfig().setEventSink(SilentEventSink.INSTANCE);
+        TreasureFinder[] agents = {
+                new TreasureFinder(7, quiet),
+                new TreasureFinder(7, new TFConfig().setLazyGamma(true)
+                        .setEventSink(SilentEventSink.INSTANCE)),
+                new TreasureFinder(7, new TFConfig().setEngine(EngineType.BITBOARD)
+                        .setEventSink(SilentEventSink.INSTANCE))};
+        TreasureWorldEnv env = new TreasureWorldEnv(7, 5, 4, "tests/pirates3.txt",
+                SilentEventSink.INSTANCE);
+        for (TreasureFinder agent : agents) {
+            agent.loadListOfSteps(7, "tests/steps3.txt");
+            agent.setEnvironment(env);
+        }
+        ArrayList<TFState> seqOfStates = loadListOfTargetStates(7, 7, "tests/states3.txt");
+        for (int i = 0; i < 7; i++) {
+            for (TreasureFinder agent : agents) {
+                testMakeSimpleStep(agent, seqOfStates.get(i));
+            }
+            for (int reading = 0; reading <= 3; reading++) {
+                int x = 1 + (3 * i + reading) % 7;
+                int y = 1 + (5 * i + 2 * reading) % 7;
+                BitSet expected = agents[2].whatIf(x, y, reading);
+                assertEquals(expected, agents[0].whatIf(x, y, reading));
+                assertEquals(expected, agents[1].whatIf(x, y, reading));
+            }
+        }
+        // With a reading of 1 at the Treasure, every other candidate goes
+        assertEquals(seqOfStates.get(6).getNumCandidates() - 1,
+                agents[0].whatIf(5, 4, 1).cardinality());
+    }
+
+    /**
+     * Agents that plan their movements must locate the Treasure of the four
+     * configurations, and a SAT agent must make the same movements and reach
+     * the same states as a bitboard agent.
+     **/
+    @Test public void testPlannedSteps()   throws
+            IOException,  ContradictionException, TimeoutException {
+        int[][] worlds = {{4, 3, 3}, {6, 4, 4}, {7, 5, 4}, {8, 3, 7}};
+        for (int w = 0; w < worlds.length; w++) {
+            int dim = worlds[w][0];
+            TreasureWorldEnv env = new TreasureWorldEnv(dim, worlds[w][1], worlds[w][2],
+                    "tests/pirates" + (w + 1) + ".txt", SilentEventSink.INSTANCE);
+            TreasureFinder sat = new TreasureFinder(dim, new TFConfig().setPlanSteps(true)
+                    .setEventSink(SilentEventSink.INSTANCE));
+            TreasureFinder bitboard = new TreasureFinder(dim, new TFConfig().setPlanSteps(true)
+                    .setEngine(EngineType.BITBOARD).setEventSink(SilentEventSink.INSTANCE));
+            sat.setEnvironment(env);
+            bitboard.setEnvironment(env);
+            int steps = 0;
+            while (bitboard.getState().getNumCandidates() > 1 && steps < dim * dim) {
+                sat.runNextStep();
+                bitboard.runNextStep();
+                assertEquals(bitboard.getState(), sat.getState());
+                steps++;
+            }
+            assertEquals(1, bitboard.getState().getNumCandidates());
+            Assert.assertTrue(bitboard.getState().isCandidate(worlds[w][1], worlds[w][2]));
+        }
+    }
+
+    /**
+     * An agent that reaches the cell of the Treasure knows where it is, and
+     * it does not perform the rest of its steps.
+     **/
+    @Test public void testEarlyStop()   throws
+            IOException,  ContradictionException, TimeoutException {
+        for (EngineType engine : EngineType.values()) {
+            TreasureWorldEnv env = new TreasureWorldEnv(7, 5, 4, "tests/pirates3.txt",
+                    SilentEventSink.INSTANCE);
+            TreasureFinder agent = new TreasureFinder(7, new TFConfig().setEngine(engine)
+                    .setEventSink(SilentEventSink.INSTANCE));
+            agent.setEnvironment(env);
+            agent.setListOfSteps(Arrays.asList(new Position(1, 1), new Position(5, 4),
+                    new Position(7, 7)));
+            agent.runNextStep();
+            Assert.assertFalse(agent.isSolved());
+            Assert.assertNull(agent.getTreasurePosition());
+            agent.runNextStep();
+            Assert.assertTrue(agent.isSolved());
+            assertEquals(5, agent.getTreasurePosition().x);
+            assertEquals(4, agent.getTreasurePosition().y);
+            assertEquals(1, agent.getState().getNumCandidates());
+            agent.runNextStep();
+            assertEquals(2, agent.idNextStep);
+            assertEquals(5, agent.agentX);
+            assertEquals(1, agent.getState().getNumCandidates());
+        }
+    }
+
+    /**
+     * An agent with a step budget of 1 ms in its TFConfig cannot check all
+     * the positions of a 24x24 world in the first step, so some are left
+     * pending. Its candidates always include the ones of the bitboard agent,
+     * and the candidates that are not pending are candidates of the bitboard
+     * agent too. Checking the pending positions in idle time makes it know
+     * what the bitboard agent knows. An agent without budget never leaves
+     * positions pending.
+     **/
+    @Test public void testStepBudget()   throws
+            IOException,  ContradictionException, TimeoutException {
+        int dim = 24;
+        Scenario scenario = Scenario.generate(11, 1, dim, 4, 10).get(0);
+        for (InferenceMode mode : new InferenceMode[] { InferenceMode.PER_CELL,
+                                                        InferenceMode.BACKBONE_BLOCKING,
+                                                        InferenceMode.PARALLEL }) {
+            TreasureFinder oracle = new TreasureFinder(dim, new TFConfig()
+                    .setEngine(EngineType.BITBOARD).setEventSink(SilentEventSink.INSTANCE));
+            TreasureFinder budgeted = new TreasureFinder(dim, new TFConfig().setInferenceMode(mode)
+                    .setParallelism(2).setLazyGamma(true).setStepBudget(1)
+                    .setEventSink(SilentEventSink.INSTANCE));
+            TreasureFinder unlimited = new TreasureFinder(dim, new TFConfig().setInferenceMode(mode)
+                    .setParallelism(2).setLazyGamma(true).setEventSink(SilentEventSink.INSTANCE));
+            TreasureFinder[] agents = {oracle, budgeted, unlimited};
+            for (TreasureFinder agent : agents) {
+                agent.setEnvironment(scenario.newEnvironment(SilentEventSink.INSTANCE));
+                agent.setListOfSteps(scenario.steps);
+            }
+
+            for (int step = 0; step < scenario.steps.size(); step++) {
+                for (TreasureFinder agent : agents) {
+                    agent.runNextStep();
+                }
+                Assert.assertFalse(oracle.isSolved());
+                if (step == 0) {
+                    Assert.assertTrue(budgeted.getNumPending() > 0);
+                }
+                TFState known = oracle.getState();
+                TFState partial = budgeted.getState();
+                for (int x = 1; x <= dim; x++) {
+                    for (int y = 1; y <= dim; y++) {
+                        Assert.assertTrue(!known.isCandidate(x, y) || partial.isCandidate(x, y));
+                    }
+                }
+                Assert.assertTrue(partial.getNumCandidates() - budgeted.getNumPending()
+                        <= known.getNumCandidates());
+                assertEquals(0, unlimited.getNumPending());
+                assertEquals(known, unlimited.getState());
+            }
+            budgeted.resumePendingInference(600000);
+            assertEquals(0, budgeted.getNumPending());
+            assertEquals(oracle.getState(), budgeted.getState());
+        }
+    }
+
+    /**
+     * An agent restored from the checkpoint of another one, taken after 3 of
+     * the 6 steps of the fourth configuration, knows the same, continues
+     * with the fourth step and reaches the expected states. A checkpoint of
+     * another dimension is rejected.
+     **/
+    @Test public void testCheckpoint()   throws
+            IOException,  ContradictionException, TimeoutException {
+        ArrayList<TFState> states = loadListOfTargetStates(8, 6, "tests/states4.txt");
+        for (EngineType engine : EngineType.values()) {
+            TFConfig config = new TFConfig().setEngine(engine).setLazyGamma(true)
+                    .setEventSink(SilentEventSink.INSTANCE);
+            TreasureFinder agent = new TreasureFinder(8, config);
+            agent.setEnvironment(new TreasureWorldEnv(8, 3, 7, "tests/pirates4.txt",
+                    SilentEventSink.INSTANCE));
+            agent.loadListOfSteps(6, "tests/steps4.txt");
+            for (int step = 0; step < 3; step++) {
+                agent.runNextStep();
+            }
+            java.io.ByteArrayOutputStream snapshot = new java.io.ByteArrayOutputStream();
+            agent.checkpoint(snapshot);
+            // Header, 5 numbers, excluded positions and 3 or 4 evidence codes
+            Assert.assertTrue(snapshot.size() < 12 + 5 + 1 + 64 + 1 + 4 * 2);
+
+            TreasureFinder restored = new TreasureFinder(8, config);
+            restored.setEnvironment(new TreasureWorldEnv(8, 3, 7, "tests/pirates4.txt",
+                    SilentEventSink.INSTANCE));
+            restored.loadListOfSteps(6, "tests/steps4.txt");
+            restored.restore(new java.io.ByteArrayInputStream(snapshot.toByteArray()));
+            Assert.assertTrue(states.get(2).equals(restored.getState()));
+            assertEquals(3, restored.idNextStep);
+            assertEquals(agent.agentX, restored.agentX);
+            assertEquals(agent.agentY, restored.agentY);
+            assertEquals(agent.numEvidence, restored.numEvidence);
+            for (int step = 3; step < 6; step++) {
+                testMakeSimpleStep(restored, states.get(step));
+            }
+
+            try {
+                new TreasureFinder(7, config).restore(
+                        new java.io.ByteArrayInputStream(snapshot.toByteArray()));
+                Assert.fail("checkpoint of another dimension accepted");
+            } catch (IOException ex) {
+                Assert.assertTrue(ex.getMessage().contains("dimension 8"));
+            }
+        }
+    }
+
+    /**
+     * Steps files can have the steps in several lines, and are read while the
+     * agent moves. Malformed steps are reported when they are reached.
+     **/
+    @Test public void testStepSources() throws Exception {
+        File file = File.createTempFile("steps-", ".txt");
+        file.deleteOnExit();
+        FileWriter out = new FileWriter(file);
+        out.write("1,1 2,1\r\n 3,1\t3,2\n\n3,3 12,345 x,1");
+        out.close();
+        FileStepSource steps = new FileStepSource(file);
+        int[][] expected = {{1, 1}, {2, 1}, {3, 1}, {3, 2}, {3, 3}, {12, 345}};
+        for (int n = 0; n < expected.length; n++) {
+            Position step = steps.nextStep();
+            assertEquals(expected[n][0], step.x);
+            assertEquals(expected[n][1], step.y);
+        }
+        try {
+            steps.nextStep();
+            Assert.fail("malformed step not reported");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("byte 30"));
+        }
+        steps.close();
+
+        // Bytes above 0x7F, like a UTF-8 BOM or a Latin-1 letter, are malformed
+        // steps, not the end of the file
+        byte[][] highBytes = {{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '1', ',', '1'},
+                              {'1', ',', '1', ' ', '2', ',', (byte) 0xE9, ' ', '3', ',', '1'}};
+        for (int n = 0; n < highBytes.length; n++) {
+            FileOutputStream bytes = new FileOutputStream(file);
+            bytes.write(highBytes[n]);
+            bytes.close();
+            steps = new FileStepSource(file);
+            try {
+                for (int k = 0; k < 3; k++) {
+                    steps.nextStep();
+                }
+                Assert.fail("non ASCII byte not reported");
+            } catch (IOException ex) {
+                Assert.assertTrue(ex.getMessage().contains("byte " + (n == 0 ? 0 : 4)));
+            }
+            steps.close();
+        }
+
+        // The agent stops at the end of the file, and can take steps from an iterator
+        TFConfig config = new TFConfig().setEventSink(SilentEventSink.INSTANCE);
+        TreasureWorldEnv env = new TreasureWorldEnv(7, 5, 4, "tests/pirates3.txt",
+                SilentEventSink.INSTANCE);
+        TreasureFinder fromFile = new TreasureFinder(7, config);
+        fromFile.setEnvironment(env);
+        fromFile.loadListOfSteps(100, "tests/steps3.txt");
+        TreasureFinder fromIterator = new TreasureFinder(7, config);
+        fromIterator.setEnvironment(env);
+        fromIterator.setStepSource(new IteratorStepSource(
+                Scenario.readSteps("tests/steps3.txt", 7).iterator()), 100);
+        for (int n = 0; n < 8; n++) {
+            fromFile.runNextStep();
+            fromIterator.runNextStep();
+            assertEquals(fromIterator.getState(), fromFile.getState());
+        }
+        assertEquals(7, fromFile.idNextStep);
+        Assert.assertNull(fromFile.listOfSteps);
+    }
+
+    /**
+     * The metrics of every step are recorded, and published as an MBean
+     * when the configuration gives a name for it.
+     **/
+    @Test public void testStepMetrics() throws Exception {
+        String name = "apryraz.tworld:type=TreasureFinder,name=test";
+        TFConfig config = new TFConfig().setEventSink(SilentEventSink.INSTANCE)
+                .setMetricsName(name);
+        TreasureWorldEnv env = new TreasureWorldEnv(8, 3, 7, "tests/pirates4.txt",
+                SilentEventSink.INSTANCE);
+        TreasureFinder agent = new TreasureFinder(8, config);
+        agent.setEnvironment(env);
+        agent.loadListOfSteps(6, "tests/steps4.txt");
+        agent.runNextStep();
+        StepMetrics first = agent.getMetrics().getLastStep();
+        assertEquals(1, first.getSteps());
+        // (1,1) returned 0, which excludes 9 positions without asking the solver
+        assertEquals(64 - 9, first.getSatCalls());
+        assertEquals(64 - 9, first.getNumCandidates());
+        Assert.assertTrue(first.getPhaseNanos(StepMetrics.INFERENCE) > 0);
+        Assert.assertTrue(first.getNumConstraints() > 0);
+        long steps = 1;
+        while (!agent.isSolved() && steps < 6) {
+            agent.runNextStep();
+            steps++;
+        }
+        StepMetrics totals = agent.getMetrics().getTotals();
+        assertEquals(steps, totals.getSteps());
+        assertEquals(agent.getState().getNumCandidates(), totals.getNumCandidates());
+        Assert.assertTrue(totals.getSatCalls() > first.getSatCalls());
+        Assert.assertTrue(totals.getPropagations() >= first.getPropagations());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(steps, server.getAttribute(new ObjectName(name), "Steps"));
+        assertEquals(totals.getSatCalls(), server.getAttribute(new ObjectName(name), "TotalSatCalls"));
+        agent.getMetrics().unregister();
+        Assert.assertFalse(server.isRegistered(new ObjectName(name)));
+
+        TreasureFinder bitboard = new TreasureFinder(8, new TFConfig()
+                .setEngine(EngineType.BITBOARD).setEventSink(SilentEventSink.INSTANCE));
+        bitboard.setEnvironment(env);
+        bitboard.loadListOfSteps(6, "tests/steps4.txt");
+        bitboard.runNextStep();
+        assertEquals(0, bitboard.getMetrics().getLastStep().getSatCalls());
+        assertEquals(64 - 9, bitboard.getMetrics().getLastStep().getNumCandidates());
+    }
+
+    /**
+     * Writes the files of generated scenarios with their expected states,
+     * and verifies agents against them step by step: a 64x64 world with the
+     * bitboard engine, a 16x16 world with the SAT engine, and a world whose
+     * Treasure is not where the expected states say, which must fail at the
+     * first step that differs.
+     **/
+    @Test public void testScenarioFiles() throws Exception {
+        File dir = new File("target/scenario-files");
+        TFConfig bitboard = new TFConfig().setEngine(EngineType.BITBOARD)
+                .setEventSink(SilentEventSink.INSTANCE);
+        File manifest = ScenarioFiles.generate(dir, 3, 2, 64, 300, 400);
+        StringWriter out = new StringWriter();
+        assertEquals(2, ScenarioFiles.verifyManifest(manifest.getPath(), bitboard,
+                new PrintWriter(out)));
+        Assert.assertTrue(out.toString().contains(" 300 steps in "));
+
+        Scenario small = Scenario.generate(5, 1, 16, 30, 20).get(0);
+        String[] line = ScenarioFiles.write(small, dir, "small").split(" ");
+        TFConfig sat = new TFConfig().setLazyGamma(true).setPirateLadder(true)
+                .setInferenceMode(InferenceMode.BACKBONE_ASSUMPTIONS)
+                .setEventSink(SilentEventSink.INSTANCE);
+        assertEquals(30, ScenarioFiles.verify("small", 16, small.treasureX, small.treasureY,
+                line[4], line[5], line[6], sat));
+
+        // The same steps in a world with the Treasure at the first step
+        Position moved = small.steps.get(0);
+        try {
+            ScenarioFiles.verify("moved", 16, moved.x, moved.y,
+                    line[4], line[5], line[6], bitboard);
+            Assert.fail("moved Treasure not detected");
+        } catch (StateMismatchException ex) {
+            assertEquals(1, ex.getStep());
+        }
+    }
+
 }